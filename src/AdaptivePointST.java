@@ -0,0 +1,631 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import dsa.Point2D;
+import dsa.RectHV;
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+// A symbol table that picks the implementation backing it (BrutePointST, KdTreePointST or
+// GridPointST) to suit its points and the operations made on it, and switches when they change.
+// It counts the puts, gets, range() and nearest() searches made on it, and after every
+// EVALUATION_INTERVAL operations predicts, with a simple cost model, the mean cost per operation
+// of each implementation given its size, the spread of its points (their bounding box, and how
+// unevenly a sample of them fills it), and the mix of operations observed since the last
+// evaluation. If another implementation is predicted to be cheaper by more than SWITCH_MARGIN,
+// and to repay the cost of building it soon enough, it is built in the background.
+//
+// Every put is also appended to a log of points and values, and a new implementation is built
+// from the log as it stood when the switch was decided, which later puts only append to. Until
+// it is built, the old implementation keeps answering. The background task then replays into it
+// the puts made in the meantime, in rounds, until a round has fewer than REPLAY_TAIL puts to
+// replay (or MAX_REPLAY_ROUNDS have run); the first operation after that replays only the puts
+// made during the last round and swaps the new implementation in, so no operation ever waits for
+// a switch in progress or replays more than a short tail. The new implementation's points replace
+// the log, which drops the repeated puts of a point; a log that has grown to more than twice the
+// size by such puts is compacted by a switch to the same implementation. The decisions made, and
+// the predictions behind them, are kept as metrics.
+//
+// Like the other symbol tables, it is not safe for concurrent use by several threads.
+public class AdaptivePointST<Value> implements PointST<Value> {
+    // Implementations
+    public static final int BRUTE = 0;
+    public static final int KDTREE = 1;
+    public static final int GRID = 2;
+    private static final String[] NAMES = {"brute", "kdtree", "grid"};
+
+    // The number of operations between evaluations of the cost model
+    private static final int EVALUATION_INTERVAL = 1 << 10;
+
+    // The fraction by which another implementation must be predicted cheaper to switch to it
+    private static final double SWITCH_MARGIN = 0.25;
+
+    // The number of points a grid is built to hold per cell
+    private static final double GRID_LOAD = 2.0;
+
+    // The number of points sampled to estimate how unevenly they fill their bounding box, and the
+    // number of cells along each axis of the histogram they are sampled into
+    private static final int SKEW_SAMPLES = 1 << 10;
+    private static final int SKEW_CELLS = 32;
+
+    // The number of puts made during a switch below which the background task leaves them to be
+    // replayed when the switch is swapped in, and the most rounds of replay it runs
+    private static final int REPLAY_TAIL = 1 << 8;
+    private static final int MAX_REPLAY_ROUNDS = 16;
+
+    // The number of decisions kept
+    private static final int DECISIONS = 64;
+
+    // Declares the instance variables
+    private PointST<Value> st;                       // the implementation answering operations
+    private int kind;                                // its kind (BRUTE, KDTREE or GRID)
+    private double[] log;                            // the points put {x0, y0, x1, y1, ...}
+    private Object[] logValues;                      // the values put
+    private int logged;                              // the number of puts in the log
+    private final Object logLock = new Object();    // guards the log against a switch reading it
+    private double xmin, ymin, xmax, ymax;           // the bounding box of the points
+    private ForkJoinTask<Migration> pending;         // the switch in progress, or null
+    private int pendingKind;                         // the kind being switched to
+
+    // The operations counted since the last evaluation, and since construction
+    private long puts, gets, ranges, nearests, neighbors;
+    private double rangeArea;                        // the sum of the fractions of the box searched
+    private long totalPuts, totalGets, totalRanges, totalNearests;
+
+    // The metrics of the decisions made
+    private long evaluations, migrations;
+    private double skew = 1.0;                       // the last estimate of how unevenly the points fill the box
+    private final double[] costs = new double[NAMES.length];  // the last predicted costs per operation
+    private final ArrayDeque<String> decisions = new ArrayDeque<String>();
+
+    // Constructs an empty symbol table, backed by a BrutePointST until it has grown.
+    public AdaptivePointST() {
+        this.st = new BrutePointST<Value>();
+        this.kind = BRUTE;
+        this.log = new double[32];
+        this.logValues = new Object[16];
+        this.xmin = this.ymin = Double.POSITIVE_INFINITY;
+        this.xmax = this.ymax = Double.NEGATIVE_INFINITY;
+    }
+
+    // Returns true if this symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return this.st.isEmpty();
+    }
+
+    // Returns the number of key-value pairs in this symbol table.
+    public int size() {
+        return this.st.size();
+    }
+
+    // Inserts the given point and value into this symbol table.
+    public void put(Point2D p, Value value) {
+        // If the point to be inserted is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        put(p.x(), p.y(), value);
+    }
+
+    // Inserts the point (x, y) and the given value into this symbol table.
+    public void put(double x, double y, Value value) {
+        // If the value to be inserted is null, throws the appropriate error
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        before();
+        this.st.put(x, y, value);
+        append(x, y, value);
+        this.xmin = Math.min(this.xmin, x);
+        this.ymin = Math.min(this.ymin, y);
+        this.xmax = Math.max(this.xmax, x);
+        this.ymax = Math.max(this.ymax, y);
+        this.puts++;
+        this.totalPuts++;
+        after();
+    }
+
+    // Returns the value associated with the given point in this symbol table, or null.
+    public Value get(Point2D p) {
+        // If the point to be retrieved is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return get(p.x(), p.y());
+    }
+
+    // Returns the value associated with the point (x, y) in this symbol table, or null.
+    public Value get(double x, double y) {
+        before();
+        Value value = this.st.get(x, y);
+        this.gets++;
+        this.totalGets++;
+        after();
+        return value;
+    }
+
+    // Returns true if this symbol table contains the given point, and false otherwise.
+    public boolean contains(Point2D p) {
+        // If the point to be checked for is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return contains(p.x(), p.y());
+    }
+
+    // Returns true if this symbol table contains the point (x, y), and false otherwise.
+    public boolean contains(double x, double y) {
+        return get(x, y) != null;
+    }
+
+    // Returns all the points in this symbol table.
+    public Iterable<Point2D> points() {
+        before();
+        return this.st.points();
+    }
+
+    // Returns all the points in this symbol table that are inside the given rectangle.
+    public Iterable<Point2D> range(RectHV rect) {
+        // If the given rectangle is null, throws the appropriate error
+        if (rect == null) {
+            throw new NullPointerException("rect is null");
+        }
+        before();
+        Iterable<Point2D> points = this.st.range(rect);
+        countRange(rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax());
+        after();
+        return points;
+    }
+
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        // If the given sink is null, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        before();
+        this.st.range(xmin, ymin, xmax, ymax, sink);
+        countRange(xmin, ymin, xmax, ymax);
+        after();
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the given point,
+    // or null.
+    public Point2D nearest(Point2D p) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return nearest(p.x(), p.y());
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (x, y), or null.
+    public Point2D nearest(double x, double y) {
+        before();
+        Point2D nearest = this.st.nearest(x, y);
+        countNearest(1);
+        after();
+        return nearest;
+    }
+
+    // Returns up to k points from this symbol table that are different from and closest to the
+    // given point.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        before();
+        Iterable<Point2D> nearest = this.st.nearest(p, k);
+        countNearest(k);
+        after();
+        return nearest;
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (x, y).
+    public void nearest(double x, double y, int k, PointSink<Value> sink) {
+        // If the given sink is null, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        before();
+        this.st.nearest(x, y, k, sink);
+        countNearest(k);
+        after();
+    }
+
+    // Returns the implementation currently backing this symbol table: BRUTE, KDTREE or GRID.
+    public int implementation() {
+        return this.kind;
+    }
+
+    // Returns the name of the given implementation.
+    public static String name(int implementation) {
+        return NAMES[implementation];
+    }
+
+    // Returns the number of times the cost model has been evaluated.
+    public long evaluations() {
+        return this.evaluations;
+    }
+
+    // Returns the number of times the backing implementation has been replaced.
+    public long migrations() {
+        return this.migrations;
+    }
+
+    // Returns true if a new backing implementation is being built.
+    public boolean isMigrating() {
+        return this.pending != null;
+    }
+
+    // Returns the cost per operation the last evaluation predicted for the given implementation,
+    // in rough units of a point comparison, or 0 if there has been no evaluation.
+    public double predictedCost(int implementation) {
+        return this.costs[implementation];
+    }
+
+    // Returns the last estimate of how unevenly the points fill their bounding box: about 1 for
+    // points spread evenly, and up to the number of cells sampled into for points all in one spot.
+    public double skew() {
+        return this.skew;
+    }
+
+    // Returns the fractions of all the operations made so far that were puts, gets (and contains),
+    // range() searches and nearest() searches, in that order.
+    public double[] operationMix() {
+        double total = Math.max(1, this.totalPuts + this.totalGets + this.totalRanges + this.totalNearests);
+        return new double[] {this.totalPuts / total, this.totalGets / total, this.totalRanges / total,
+            this.totalNearests / total};
+    }
+
+    // Returns the most recent decisions, oldest first: every switch started and completed, with the
+    // predictions behind it.
+    public List<String> decisions() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.decisions));
+    }
+
+    // Returns a report of the backing implementation and the metrics of the decisions made.
+    public String toString() {
+        double[] mix = operationMix();
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("size = %d, implementation = %s%s, migrations = %d, evaluations = %d\n", size(),
+            NAMES[this.kind], isMigrating() ? " (switching to " + NAMES[this.pendingKind] + ")" : "",
+            this.migrations, this.evaluations));
+        s.append(String.format("mix: %.1f%% put, %.1f%% get, %.1f%% range, %.1f%% nearest; skew = %.2f\n",
+            100 * mix[0], 100 * mix[1], 100 * mix[2], 100 * mix[3], this.skew));
+        s.append(String.format("predicted cost per operation: brute %.1f, kdtree %.1f, grid %.1f\n",
+            this.costs[BRUTE], this.costs[KDTREE], this.costs[GRID]));
+        for (String decision : this.decisions) {
+            s.append("  ").append(decision).append('\n');
+        }
+        return s.toString();
+    }
+
+    // Swaps in the new implementation if a switch has finished building it.
+    private void before() {
+        if (this.pending != null && this.pending.isDone()) {
+            finish(this.pending.join());
+        }
+    }
+
+    // Evaluates the cost model if an interval has passed and no switch is in progress.
+    private void after() {
+        if (this.puts + this.gets + this.ranges + this.nearests >= EVALUATION_INTERVAL && this.pending == null) {
+            evaluate();
+        }
+    }
+
+    // Counts a range() search of the rectangle [xmin, xmax] x [ymin, ymax].
+    private void countRange(double xmin, double ymin, double xmax, double ymax) {
+        this.ranges++;
+        this.totalRanges++;
+        double width = this.xmax - this.xmin, height = this.ymax - this.ymin;
+        if (width > 0 && height > 0) {
+            double w = Math.max(0.0, Math.min(xmax, this.xmax) - Math.max(xmin, this.xmin));
+            double h = Math.max(0.0, Math.min(ymax, this.ymax) - Math.max(ymin, this.ymin));
+            this.rangeArea += w / width * (h / height);
+        }
+    }
+
+    // Counts a search for the k nearest points.
+    private void countNearest(int k) {
+        this.nearests++;
+        this.totalNearests++;
+        this.neighbors += k;
+    }
+
+    // Appends the point (x, y) and the given value to the log. A switch in progress may read the
+    // log from another thread, so the log is changed only while holding logLock.
+    private void append(double x, double y, Value value) {
+        synchronized (this.logLock) {
+            if (this.logged == this.logValues.length) {
+                this.log = Arrays.copyOf(this.log, 4 * this.logged);
+                this.logValues = Arrays.copyOf(this.logValues, 2 * this.logged);
+            }
+            this.log[2 * this.logged] = x;
+            this.log[2 * this.logged + 1] = y;
+            this.logValues[this.logged++] = value;
+        }
+    }
+
+    // Predicts the cost per operation of each implementation over the operations of the interval
+    // just ended, and starts a switch if another one, or a fresh build of the same one, pays off.
+    private void evaluate() {
+        this.evaluations++;
+        int n = size();
+        double lg = Math.log(Math.max(n, 2)) / Math.log(2);
+        double found = n * this.rangeArea / Math.max(1, this.ranges);    // the points a range() finds
+        double k = (double) this.neighbors / Math.max(1, this.nearests);  // the points a nearest() finds
+        this.skew = estimateSkew();
+
+        // The cost of each kind of operation, in rough units of a point comparison: a scan of the
+        // arrays costs a fraction of a unit per point, a step down a tree a few units, and a cell
+        // of a grid a unit plus one per point in it, more when the points are unevenly spread. A
+        // grid is costed as freshly built, and the current one at the load it has grown to.
+        this.costs[BRUTE] = mix(4 * lg, 4 * lg, 0.5 * n + found, n + k * lg);
+        this.costs[KDTREE] = mix(3 * lg, 3 * lg, 6 * lg + 3 * found, 8 * lg + 4 * k);
+        this.costs[GRID] = gridBounds() == null ? Double.POSITIVE_INFINITY : gridCost(GRID_LOAD, found, k);
+        double current = this.kind != GRID ? this.costs[this.kind]
+            : gridCost(n / (double) ((GridPointST<Value>) this.st).cells(), found, k);
+        int best = this.kind;
+        for (int kind = 0; kind < NAMES.length; kind++) {
+            if (this.costs[kind] < this.costs[best]) {
+                best = kind;
+            }
+        }
+
+        // Switches if the gain repays building the new implementation within as many operations as
+        // an interval or as there are points, whichever is more, or compacts the log if repeated
+        // puts have bloated it
+        double horizon = Math.max(this.puts + this.gets + this.ranges + this.nearests, n);
+        double build = n * (best == KDTREE ? 2 * lg : best == BRUTE ? 4 * lg : 4);
+        if (this.costs[best] < (1 - SWITCH_MARGIN) * current && (current - this.costs[best]) * horizon > build) {
+            start(best, String.format("predicted %.1f -> %.1f per operation", current, this.costs[best]));
+        } else if (this.logged > 2 * n + EVALUATION_INTERVAL) {
+            start(this.kind, String.format("compacting a log of %d puts", this.logged));
+        }
+        this.puts = this.gets = this.ranges = this.nearests = this.neighbors = 0;
+        this.rangeArea = 0.0;
+    }
+
+    // Returns the mean cost per operation over the interval just ended, given the cost of a put, a
+    // get, a range() search and a nearest() search.
+    private double mix(double put, double get, double range, double nearest) {
+        double ops = this.puts + this.gets + this.ranges + this.nearests;
+        return (this.puts * put + this.gets * get + this.ranges * range + this.nearests * nearest) / ops;
+    }
+
+    // Returns the mean cost per operation of a grid holding the given number of points per cell,
+    // where a range() search finds the given number of points and a nearest() search k.
+    private double gridCost(double load, double found, double k) {
+        double cell = 1 + load * this.skew;
+        return mix(2 + cell, 2 + cell, 2 * found + 4 * Math.sqrt(found + 1) * cell, 9 * cell + 4 * k * this.skew);
+    }
+
+    // Returns an estimate of how unevenly the points fill their bounding box: the mean number of
+    // sampled points sharing a histogram cell with a sampled point, relative to what evenly spread
+    // points would give.
+    private double estimateSkew() {
+        double width = this.xmax - this.xmin, height = this.ymax - this.ymin;
+        if (this.logged == 0 || !(width > 0) || !(height > 0)) {
+            return 1.0;
+        }
+        int samples = Math.min(SKEW_SAMPLES, this.logged);
+        int[] counts = new int[SKEW_CELLS * SKEW_CELLS];
+        long shared = 0;
+        for (int s = 0; s < samples; s++) {
+            int i = (int) ((long) s * this.logged / samples);
+            int c = (int) Math.min(SKEW_CELLS - 1, (this.log[2 * i] - this.xmin) / width * SKEW_CELLS);
+            int r = (int) Math.min(SKEW_CELLS - 1, (this.log[2 * i + 1] - this.ymin) / height * SKEW_CELLS);
+            shared += 2 * counts[r * SKEW_CELLS + c]++ + 1;
+        }
+        double even = (double) samples / counts.length + 1;
+        return Math.max(1.0, (double) shared / samples / even);
+    }
+
+    // Returns the box {xmin, ymin, xmax, ymax} a grid over the points would cover, or null if they
+    // span no finite area.
+    private double[] gridBounds() {
+        double width = this.xmax - this.xmin, height = this.ymax - this.ymin;
+        if (size() == 0 || Double.isNaN(width) || Double.isNaN(height) || Double.isInfinite(width)
+            || Double.isInfinite(height)) {
+            return null;
+        }
+        double pad = Math.max(Math.max(width, height), 1.0) * 1e-9;
+        return new double[] {this.xmin - pad, this.ymin - pad, this.xmax + pad, this.ymax + pad};
+    }
+
+    // Starts building, in the background, an implementation of the given kind from the log as it
+    // stands.
+    private void start(int kind, String reason) {
+        double[] log = this.log;
+        Object[] logValues = this.logValues;
+        int logged = this.logged;
+        double[] bounds = gridBounds();
+        int n = size();
+        this.pendingKind = kind;
+        this.pending = ForkJoinPool.commonPool().submit(() -> migrate(kind, log, logValues, logged, bounds, n));
+        decide(String.format("at %d points: %s -> %s started (%s)", n, NAMES[this.kind], NAMES[kind], reason));
+    }
+
+    // Replays into the implementation the given migration built the puts made since it last caught
+    // up with the log, and swaps it in, with its points as the new log.
+    @SuppressWarnings("unchecked")
+    private void finish(Migration migration) {
+        PointST<Value> st = (PointST<Value>) migration.st;
+        double[] log = this.log;
+        Object[] logValues = this.logValues;
+        int logged = this.logged;
+        synchronized (this.logLock) {
+            this.log = migration.log;
+            this.logValues = migration.logValues;
+            this.logged = migration.size;
+        }
+        for (int i = migration.logged; i < logged; i++) {
+            st.put(log[2 * i], log[2 * i + 1], (Value) logValues[i]);
+            append(log[2 * i], log[2 * i + 1], (Value) logValues[i]);
+        }
+        this.st = st;
+        decide(String.format("at %d points: %s -> %s completed, %d puts replayed in the background, %d on swapping in",
+            st.size(), NAMES[this.kind], NAMES[this.pendingKind], migration.replayed, logged - migration.logged));
+        this.kind = this.pendingKind;
+        this.pending = null;
+        this.migrations++;
+    }
+
+    // Returns a migration to an implementation of the given kind, built from the first logged
+    // puts of the given log, the grid over the given bounds for about n points, and then caught up
+    // with the puts made since, which its log, compacted to its distinct points, ends with. Runs in
+    // the background.
+    @SuppressWarnings("unchecked")
+    private Migration migrate(int kind, double[] log, Object[] logValues, int logged, double[] bounds, int n) {
+        PointST<Value> st;
+        if (kind == KDTREE) {
+            st = KdTreePointST.build(Arrays.copyOf(log, 2 * logged), i -> (Value) logValues[i]);
+        } else {
+            if (kind == BRUTE) {
+                st = new BrutePointST<Value>();
+            } else {
+                double width = bounds[2] - bounds[0], height = bounds[3] - bounds[1];
+                double cells = Math.min(GridPointST.MAX_CELLS / 2, Math.max(1, n / GRID_LOAD));
+                int cols = (int) Math.max(1, Math.min(cells, Math.ceil(Math.sqrt(cells * width / height))));
+                int rows = (int) Math.max(1, Math.ceil(cells / cols));
+                st = new GridPointST<Value>(bounds[0], bounds[1], bounds[2], bounds[3], cols, rows);
+            }
+            for (int i = 0; i < logged; i++) {
+                st.put(log[2 * i], log[2 * i + 1], (Value) logValues[i]);
+            }
+        }
+
+        // Compacts the log to the distinct points, with room for as many puts again
+        int size = st.size();
+        int capacity = Math.max(16, 2 * size);
+        double[] points = new double[2 * capacity];
+        Object[] values = new Object[capacity];
+        int count = 0;
+        for (Point2D p : st.points()) {
+            points[2 * count] = p.x();
+            points[2 * count + 1] = p.y();
+            values[count++] = st.get(p);
+        }
+
+        // Replays, into it and its log, the puts made while it was being built and compacted, and
+        // while those were being replayed, until few enough are left for the swap to replay
+        int built = logged, replayed = 0;
+        for (int round = 0; round < MAX_REPLAY_ROUNDS; round++) {
+            double[] tail;
+            Object[] tailValues;
+            int end;
+            synchronized (this.logLock) {
+                tail = this.log;
+                tailValues = this.logValues;
+                end = this.logged;
+            }
+            if (end - built < REPLAY_TAIL) {
+                break;
+            }
+            for (int i = built; i < end; i++) {
+                st.put(tail[2 * i], tail[2 * i + 1], (Value) tailValues[i]);
+                if (count == values.length) {
+                    points = Arrays.copyOf(points, 4 * count);
+                    values = Arrays.copyOf(values, 2 * count);
+                }
+                points[2 * count] = tail[2 * i];
+                points[2 * count + 1] = tail[2 * i + 1];
+                values[count++] = tailValues[i];
+            }
+            replayed += end - built;
+            built = end;
+        }
+        return new Migration(st, points, values, count, built, replayed);
+    }
+
+    // Records the given decision, dropping the oldest if too many are kept.
+    private void decide(String decision) {
+        if (this.decisions.size() == DECISIONS) {
+            this.decisions.removeFirst();
+        }
+        this.decisions.addLast(decision);
+    }
+
+    // A backing implementation built in the background, along with its log: its distinct points,
+    // followed by the puts replayed into it.
+    private static class Migration {
+        private final PointST<?> st;         // the implementation built
+        private final double[] log;          // the points of its log {x0, y0, x1, y1, ...}
+        private final Object[] logValues;    // their values
+        private final int size;              // the number of puts in its log
+        private final int logged;            // the number of puts of the old log it holds
+        private final int replayed;          // how many of those were replayed after it was built
+
+        // Constructs a migration.
+        Migration(PointST<?> st, double[] log, Object[] logValues, int size, int logged, int replayed) {
+            this.st = st;
+            this.log = log;
+            this.logValues = logValues;
+            this.size = size;
+            this.logged = logged;
+            this.replayed = replayed;
+        }
+    }
+
+    // Unit tests the data type: a workload that grows a table of clustered points, searches it
+    // for nearest neighbors, and then for ranges over a table of evenly spread points, reporting
+    // the decisions made after each phase.
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        StdRandom.setSeed(42);
+        AdaptivePointST<Integer> st = new AdaptivePointST<Integer>();
+
+        // A small table, put and looked up
+        for (int i = 0; i < 200; i++) {
+            st.put(StdRandom.uniform(), StdRandom.uniform(), i);
+            st.get(StdRandom.uniform(), StdRandom.uniform());
+        }
+        report("small table", st);
+
+        // A large table of clustered points, searched for nearest neighbors
+        for (int i = 0; i < n; i++) {
+            double cx = (i % 8) / 8.0, cy = (i % 5) / 5.0;
+            st.put(cx + StdRandom.gaussian(0, 0.01), cy + StdRandom.gaussian(0, 0.01), i);
+            if (i % 4 == 0) {
+                st.nearest(StdRandom.uniform(), StdRandom.uniform(), 8, (x, y, value) -> { });
+            }
+        }
+        for (int i = 0; i < 4 * EVALUATION_INTERVAL; i++) {
+            st.nearest(StdRandom.uniform(), StdRandom.uniform(), 8, (x, y, value) -> { });
+        }
+        report("clustered, nearest", st);
+
+        // A large table of evenly spread points, put and looked up
+        AdaptivePointST<Integer> uniform = new AdaptivePointST<Integer>();
+        for (int i = 0; i < n; i++) {
+            uniform.put(StdRandom.uniform(), StdRandom.uniform(), i);
+            uniform.get(StdRandom.uniform(), StdRandom.uniform());
+        }
+        for (int i = 0; i < 4 * EVALUATION_INTERVAL; i++) {
+            uniform.get(StdRandom.uniform(), StdRandom.uniform());
+        }
+        report("uniform, put and get", uniform);
+    }
+
+    // Waits for any switch in progress to be swapped in, and prints the given phase's report.
+    private static void report(String phase, AdaptivePointST<Integer> st) {
+        if (st.pending != null) {
+            st.pending.join();
+            st.before();
+        }
+        StdOut.println(phase + ":");
+        StdOut.print(st);
+        StdOut.println();
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.stream.IntStream;
+
+import dsa.Point2D;
+import stdlib.StdRandom;
+
+// The state of a boid simulation (the boids and the hawk chasing them) held in primitive arrays,
+// and the physics that moves it one frame at a time. Each boid steers away from its neighbors and
+// the hawk, matches its neighbors' velocity, heads for their centroid, and is pulled back towards
+// the center of the world; the hawk chases the boid nearest to it. The forces are computed without
+// allocating: a boid's neighbors are read from the index as ids into the arrays, and each boid's
+// new position and velocity are written to a second set of arrays, so that every boid of a frame
+// sees the same, old, state of its neighbors whatever the order the boids are updated in. The
+// boids are updated in parallel.
+public class BoidFlock {
+    // Weights of the forces acting on a boid
+    private static final double BOID_AVOIDANCE_WEIGHT = 0.01;
+    private static final double HAWK_AVOIDANCE_WEIGHT = 0.01;
+    private static final double VELOCITY_MATCH_WEIGHT = 1;
+    private static final double PLUNGE_DEEPER_WEIGHT = 1;
+    private static final double RETURN_TO_ORIGIN_WEIGHT = 0.05;
+    private static final double THRUST_FACTOR = 0.0001;
+    private static final double HAWK_THRUST_FACTOR = 0.0003;
+
+    // Flocks with fewer boids than this are updated sequentially
+    private static final int PARALLEL_THRESHOLD = 1 << 10;
+
+    // Declares the instance variables
+    private final int n;            // the number of boids
+    private final int friends;      // the number of neighbors each boid follows
+    private final Integer[] ids;    // the boxed ids, the values the index maps positions to
+    private double[] position;      // the positions {x0, y0, x1, y1, ...}
+    private double[] velocity;      // the velocities, laid out like the positions
+    private double[] nextPosition;  // the positions being computed for the next frame
+    private double[] nextVelocity;  // the velocities being computed for the next frame
+    private final int[] neighbors;  // the ids of boid i's neighbors, at [i * friends, i * friends + count[i])
+    private final int[] count;      // the number of neighbors found for each boid
+    private double hawkX, hawkY;    // the hawk's position
+    private double hawkVX, hawkVY;  // the hawk's velocity
+
+    // Constructs a flock of numBoids boids with random positions and velocities, each following
+    // its friends nearest neighbors, and a hawk at rest at (hawkX, hawkY).
+    public BoidFlock(int numBoids, int friends, double hawkX, double hawkY) {
+        if (numBoids < 0) {
+            throw new IllegalArgumentException("numBoids is negative");
+        }
+        if (friends < 0) {
+            throw new IllegalArgumentException("friends is negative");
+        }
+        this.n = numBoids;
+        this.friends = friends;
+        this.ids = new Integer[numBoids];
+        this.position = new double[2 * numBoids];
+        this.velocity = new double[2 * numBoids];
+        this.nextPosition = new double[2 * numBoids];
+        this.nextVelocity = new double[2 * numBoids];
+        this.neighbors = new int[numBoids * friends];
+        this.count = new int[numBoids];
+        this.hawkX = hawkX;
+        this.hawkY = hawkY;
+        for (int i = 0; i < numBoids; i++) {
+            this.ids[i] = i;
+            this.position[2 * i] = StdRandom.uniform();
+            this.position[2 * i + 1] = StdRandom.uniform();
+            this.velocity[2 * i] = (StdRandom.uniform() - 0.5) / 1000;
+            this.velocity[2 * i + 1] = (StdRandom.uniform() - 0.5) / 1000;
+        }
+    }
+
+    // Returns the number of boids.
+    public int size() {
+        return this.n;
+    }
+
+    // Returns the x-coordinate of boid i.
+    public double x(int i) {
+        return this.position[2 * i];
+    }
+
+    // Returns the y-coordinate of boid i.
+    public double y(int i) {
+        return this.position[2 * i + 1];
+    }
+
+    // Returns the positions {x0, y0, x1, y1, ...} of the boids, which must not be modified.
+    public double[] positions() {
+        return this.position;
+    }
+
+    // Returns the id of boid i, boxed once so that indexing the boids allocates nothing per frame.
+    public Integer id(int i) {
+        return this.ids[i];
+    }
+
+    // Returns the x-coordinate of the hawk.
+    public double hawkX() {
+        return this.hawkX;
+    }
+
+    // Returns the y-coordinate of the hawk.
+    public double hawkY() {
+        return this.hawkY;
+    }
+
+    // Finds each boid's friends nearest neighbors in the given index, which maps the boids'
+    // current positions to their ids.
+    public void findNeighbors(PointST<Integer> index) {
+        forEachChunk((lo, hi) -> {
+            NeighborSink sink = new NeighborSink();
+            for (int i = lo; i < hi; i++) {
+                sink.start(i);
+                index.nearest(position[2 * i], position[2 * i + 1], friends, sink);
+                count[i] = sink.count;
+            }
+        });
+    }
+
+    // Moves every boid one frame, using the neighbors found by findNeighbors(), and then moves
+    // the hawk towards the boid the given index finds closest to it.
+    public void update(PointST<Integer> index) {
+        forEachChunk((lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                move(i);
+            }
+        });
+        double[] t = position;
+        position = nextPosition;
+        nextPosition = t;
+        t = velocity;
+        velocity = nextVelocity;
+        nextVelocity = t;
+
+        // The hawk chases the boid that was closest to it at the start of the frame, to where that
+        // boid is now.
+        Point2D nearest = index.nearest(hawkX, hawkY);
+        hawkX += hawkVX;
+        hawkY += hawkVY;
+        if (nearest != null) {
+            int closest = index.get(nearest);
+            double dx = position[2 * closest] - hawkX, dy = position[2 * closest + 1] - hawkY;
+            double length = Math.sqrt(dx * dx + dy * dy);
+            hawkVX += dx / length * HAWK_THRUST_FACTOR;
+            hawkVY += dy / length * HAWK_THRUST_FACTOR;
+        }
+    }
+
+    // Computes the next position and velocity of boid i from the current state.
+    private void move(int i) {
+        double x = position[2 * i], y = position[2 * i + 1];
+        double vx = velocity[2 * i], vy = velocity[2 * i + 1];
+        int first = i * friends, last = first + count[i];
+
+        // Steers away from the neighbors, stopping at one on top of the boid
+        double avoidX = 0, avoidY = 0;
+        for (int t = first; t < last; t++) {
+            int j = neighbors[t];
+            double dx = x - position[2 * j], dy = y - position[2 * j + 1];
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance == 0.0) {
+                break;
+            }
+            avoidX += dx / distance;
+            avoidY += dy / distance;
+        }
+
+        // Steers away from the hawk
+        double hx = x - hawkX, hy = y - hawkY;
+        double hawkDistance = Math.sqrt(hx * hx + hy * hy);
+
+        // Matches the neighbors' velocity, and heads for their centroid
+        double matchX = 0, matchY = 0, centroidX = 0, centroidY = 0;
+        for (int t = first; t < last; t++) {
+            int j = neighbors[t];
+            matchX += velocity[2 * j] - vx;
+            matchY += velocity[2 * j + 1] - vy;
+            centroidX += position[2 * j];
+            centroidY += position[2 * j + 1];
+        }
+        centroidX /= count[i];
+        centroidY /= count[i];
+
+        // Sums the weighted forces, plus a pull back towards the center of the world, and thrusts
+        // in their direction
+        double desiredX = avoidX * BOID_AVOIDANCE_WEIGHT + hx / hawkDistance * HAWK_AVOIDANCE_WEIGHT
+            + matchX * VELOCITY_MATCH_WEIGHT + (centroidX - x) * PLUNGE_DEEPER_WEIGHT
+            + (0.5 - x) * RETURN_TO_ORIGIN_WEIGHT;
+        double desiredY = avoidY * BOID_AVOIDANCE_WEIGHT + hy / hawkDistance * HAWK_AVOIDANCE_WEIGHT
+            + matchY * VELOCITY_MATCH_WEIGHT + (centroidY - y) * PLUNGE_DEEPER_WEIGHT
+            + (0.5 - y) * RETURN_TO_ORIGIN_WEIGHT;
+        double magnitude = Math.sqrt(desiredX * desiredX + desiredY * desiredY);
+        if (magnitude != 0.0) {
+            desiredX = desiredX / magnitude * THRUST_FACTOR;
+            desiredY = desiredY / magnitude * THRUST_FACTOR;
+        }
+
+        nextPosition[2 * i] = x + vx;
+        nextPosition[2 * i + 1] = y + vy;
+        nextVelocity[2 * i] = vx + desiredX;
+        nextVelocity[2 * i + 1] = vy + desiredY;
+    }
+
+    // Runs the given action over the boids [lo, hi) of each chunk of the flock, in parallel if the
+    // flock is large.
+    private void forEachChunk(ChunkAction action) {
+        if (n < PARALLEL_THRESHOLD) {
+            action.run(0, n);
+            return;
+        }
+        int chunks = Math.min(4 * Runtime.getRuntime().availableProcessors(), n / (PARALLEL_THRESHOLD / 4));
+        IntStream.range(0, chunks).parallel()
+            .forEach(c -> action.run((int) ((long) n * c / chunks), (int) ((long) n * (c + 1) / chunks)));
+    }
+
+    // An action over a chunk of boids.
+    private interface ChunkAction {
+        // Runs the action over the boids [lo, hi).
+        void run(int lo, int hi);
+    }
+
+    // A sink that writes the ids of the neighbors it is given into boid i's slots of neighbors.
+    private class NeighborSink implements PointSink<Integer> {
+        private int offset;  // where boid i's slots start
+        private int count;   // the number of ids written so far
+
+        // Starts collecting the neighbors of boid i.
+        void start(int i) {
+            this.offset = i * friends;
+            this.count = 0;
+        }
+
+        // Accepts the next neighbor.
+        public void accept(double x, double y, Integer id) {
+            neighbors[offset + count++] = id;
+        }
+    }
+}
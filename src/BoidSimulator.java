@@ -1,7 +1,17 @@
-// Accepts mode ("brute" or "kdtree"), numBoids (int), and friends (int) as command-line
-// arguments; and implements a boid simulator using BrutePointST if mode is "brute" and KdTreeST
-// if mode is "kdtree", with the given number of boids and friends per boid. Instructions for
-// using the boid simulator:
+// Accepts mode ("brute" or "kdtree"), numBoids (int), friends (int), and optionally schedule
+// ("exact" or "pipelined") as command-line arguments; and implements a boid simulator using
+// BrutePointST if mode is "brute" and KdTreeST if mode is "kdtree", with the given number of boids
+// and friends per boid. In the "exact" schedule (the default) every frame's index is built over
+// the boids' current positions before the frame runs; in the "pipelined" one it is built in the
+// background while the previous frame runs, so the k-NN queries see the boids as they were one
+// frame earlier (see FramePipeline). If frames (int) and optionally seed (long) and schedule
+// ("exact", "pipelined", or "compare") follow instead, the simulator runs headless for that many
+// frames, without drawing or pausing, from boids placed using that seed (42 by default), and
+// reports the time spent per frame in each phase (index build, or the wait for it when pipelined;
+// k-NN queries; physics update), the frames per second, and the bytes allocated per frame; in the
+// "compare" schedule it runs both schedules and reports the pipelined one's throughput gain. Only
+// the boids in view are drawn, found with the index; when too many are in view, they are drawn as
+// a grid of cells shaded by how many boids each holds. Instructions for using the boid simulator:
 //    Press "o" to zoom out.
 //    Press "i" to zoom in.
 //    Press "t" to track the center of mass of all boids.
@@ -10,11 +20,12 @@
 //    While in "manual" mode, use arrow keys to control camera movement.
 
 import java.awt.event.KeyEvent;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
 
-import dsa.LinkedQueue;
-import dsa.Point2D;
-import dsa.Vector;
 import stdlib.StdDraw;
+import stdlib.StdOut;
 import stdlib.StdRandom;
 
 public class BoidSimulator {
@@ -27,6 +38,17 @@ public class BoidSimulator {
     private static final double ZOOM_FACTOR = 1.1;
     private static final double CAMERA_SPEED = 0.05;
 
+    // Level-of-detail constants: with more boids than this in view, the view is drawn as a grid of
+    // LOD_CELLS x LOD_CELLS cells shaded by the number of boids in each.
+    private static final int LOD_THRESHOLD = 1 << 12;
+    private static final int LOD_CELLS = 64;
+
+    // Frame phases, as indices into the timings kept by index() and step().
+    private static final int BUILD = 0;
+    private static final int QUERY = 1;
+    private static final int UPDATE = 2;
+    private static final String[] PHASES = {"index build", "k-NN queries", "physics update"};
+
     private static char mode = TRACKING_MODE; // start in "tracking" mode
 
     // Entry point.
@@ -34,25 +56,34 @@ public class BoidSimulator {
         String mode = args[0];
         int numBoids = Integer.parseInt(args[1]);
         int friends = Integer.parseInt(args[2]);
+        if (args.length > 3 && !args[3].equals("exact") && !args[3].equals("pipelined")) {
+            int frames = Integer.parseInt(args[3]);
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+            String schedule = args.length > 5 ? args[5] : "exact";
+            if (schedule.equals("compare")) {
+                double exact = runHeadless(mode, numBoids, friends, frames, seed, false);
+                StdOut.println();
+                double pipelined = runHeadless(mode, numBoids, friends, frames, seed, true);
+                StdOut.println();
+                StdOut.printf("pipelined throughput gain: %.2fx (%.1f vs %.1f frames/s)\n", pipelined / exact,
+                    pipelined, exact);
+            } else {
+                runHeadless(mode, numBoids, friends, frames, seed, pipelined(schedule));
+            }
+            return;
+        }
+        boolean pipelined = pipelined(args.length > 3 ? args[3] : "exact");
 
-        Hawk hawk = new Hawk(0.5, 0.3);
         StdDraw.pause(20);
 
         // Each boid tracks a number of nearest neighbors equal to FRIENDS.
-        Boid[] boids = new Boid[numBoids];
+        BoidFlock flock = new BoidFlock(numBoids, friends, 0.5, 0.3);
         double meanX, meanY;
         double radius = 0.5;
         double currentX = 0.5;
         double currentY = 0.5;
-
-        // Generate random boids.
-        for (int i = 0; i < numBoids; i++) {
-            double startX = StdRandom.uniform();
-            double startY = StdRandom.uniform();
-            double velX = (StdRandom.uniform() - 0.5) / 1000;
-            double velY = (StdRandom.uniform() - 0.5) / 1000;
-            boids[i] = new Boid(startX, startY, velX, velY);
-        }
+        long[] nanos = new long[PHASES.length];
+        FramePipeline pipeline = new FramePipeline(flock, mode, pipelined);
 
         // Enable double buffering to avoid flicker.
         StdDraw.enableDoubleBuffering();
@@ -85,18 +116,18 @@ public class BoidSimulator {
             StdDraw.setXscale(currentX - radius, currentX + radius);
             StdDraw.setYscale(currentY - radius, currentY + radius);
 
-            // Draw all boids and calculate their meanX and meanY.
+            // Index the boids, and draw those in view and the hawk.
+            PointST<Integer> st = index(pipeline, nanos);
+            draw(st, flock, currentX - radius, currentY - radius, currentX + radius, currentY + radius);
+
+            // Calculate the boids' meanX and meanY.
             meanX = 0;
             meanY = 0;
             for (int i = 0; i < numBoids; i++) {
-                meanX += boids[i].x() / numBoids;
-                meanY += boids[i].y() / numBoids;
-                boids[i].draw();
+                meanX += flock.x(i) / numBoids;
+                meanY += flock.y(i) / numBoids;
             }
 
-            // Draw the hawk.
-            hawk.draw();
-
             if (BoidSimulator.mode == TRACKING_MODE) {
                 // Follow center of mass in tracking mode.
                 currentX = meanX;
@@ -121,32 +152,12 @@ public class BoidSimulator {
                 }
             } else if (BoidSimulator.mode == HAWK_MODE) {
                 // Follow hawk in hawk mode.
-                currentX = hawk.x();
-                currentY = hawk.y();
+                currentX = flock.hawkX();
+                currentY = flock.hawkY();
             }
 
-            // The entire symbol table must be rebuilt every frame. Since the boids are random,
-            // we expect a roughly balanced tree, despite the lack of balancing in KdTreeST.
-            PointST<Boid> st = null;
-            if (mode.equals("brute")) {
-                st = new BrutePointST<Boid>();
-            } else if (mode.equals("kdtree")) {
-                st = new KdTreePointST<Boid>();
-            } else {
-                throw new IllegalArgumentException("Illegal command-line argument");
-            }
-            for (int i = 0; i < numBoids; i++) {
-                st.put(boids[i].position(), boids[i]);
-            }
-            for (int i = 0; i < numBoids; i++) {
-                Iterable<Point2D> kNearestPoints = st.nearest(boids[i].position(), friends);
-                Iterable<Boid> kNearest = lookUpBoids(st, kNearestPoints);
-                boids[i].updatePositionAndVelocity(kNearest, hawk);
-            }
-
-            // The hawk will chase the nearest boid.
-            Boid closestBoid = st.get(st.nearest(hawk.position()));
-            hawk.updatePositionAndVelocity(closestBoid);
+            // Move the boids and the hawk.
+            step(st, flock, nanos);
 
             StdDraw.show();
             StdDraw.pause(20);
@@ -154,188 +165,129 @@ public class BoidSimulator {
         }
     }
 
-    private static Iterable<Boid> lookUpBoids(PointST<Boid> st, Iterable<Point2D> points) {
-        LinkedQueue<Boid> values = new LinkedQueue<Boid>();
-        for (Point2D p : points) {
-            values.enqueue(st.get(p));
+    // Runs the simulation for the given number of frames without drawing, with the index built one
+    // frame ahead in the background if pipelined is true; reports the time spent in each phase, the
+    // frames per second, and the bytes allocated per frame; and returns the frames per second.
+    private static double runHeadless(String mode, int numBoids, int friends, int frames, long seed,
+                                      boolean pipelined) {
+        StdRandom.setSeed(seed);
+        BoidFlock flock = new BoidFlock(numBoids, friends, 0.5, 0.3);
+        long[] nanos = new long[PHASES.length];
+        FramePipeline pipeline = new FramePipeline(flock, mode, pipelined);
+
+        // Counts the allocation of every thread, since the flock's update, the parallel builds and
+        // the background builds all run on the common pool's workers rather than this thread
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> before = allocatedBytes(threads);
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            step(index(pipeline, nanos), flock, nanos);
         }
-        return values;
-    }
-}
-
-class Boid {
-    private static final double BOID_AVOIDANCE_WEIGHT = 0.01;
-    private static final double HAWK_AVOIDANCE_WEIGHT = 0.01;
-    private static final double VELOCITY_MATCH_WEIGHT = 1;
-    private static final double PLUNGE_DEEPER_WEIGHT = 1;
-    private static final double RETURN_TO_ORIGIN_WEIGHT = 0.05;
-    private static final double THRUST_FACTOR = 0.0001;
-    private Point2D position;
-    private Vector velocity;
-
-    public Boid(double x, double y) {
-        position = new Point2D(x, y);
-        velocity = new Vector(new double[]{0, 0});
-    }
-
-    public Boid(double x, double y, double xvel, double yvel) {
-        position = new Point2D(x, y);
-        velocity = new Vector(new double[]{xvel, yvel});
-    }
-
-    public Point2D position() {
-        return position;
-    }
-
-    public double x() {
-        return position.x();
-    }
-
-    public double y() {
-        return position.y();
-    }
-
-    public Vector avoidCollision(Iterable<Boid> neighbors) {
-        Vector requestedVector = new Vector(new double[]{0, 0});
-        Vector myPosition = new Vector(new double[]{x(), y()});
-        for (Boid b : neighbors) {
-            Vector neighborPosition = new Vector(new double[]{b.x(), b.y()});
-            double distanceTo = distance(myPosition, neighborPosition);
-            if (distanceTo == 0.0) {
-                break;
-            }
-            Vector avoidanceVector = myPosition.subtract(neighborPosition);
-            Vector scaledAvoidanceVector = avoidanceVector.scale(1.0 / distanceTo);
-            requestedVector = requestedVector.add(scaledAvoidanceVector);
+        long elapsed = System.nanoTime() - start;
+        bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        long allBytes = 0;
+        for (Map.Entry<Long, Long> thread : allocatedBytes(threads).entrySet()) {
+            allBytes += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
         }
-        return requestedVector;
-    }
-
-    public Vector avoidCollision(Hawk hawk) {
-        Vector requestedVector = new Vector(new double[]{0, 0});
-        Vector myPosition = new Vector(new double[]{x(), y()});
-        Vector hawkPosition = new Vector(new double[]{hawk.x(), hawk.y()});
-        double distanceTo = distance(myPosition, hawkPosition);
-        Vector avoidanceVector = myPosition.subtract(hawkPosition);
-        Vector scaledAvoidanceVector = avoidanceVector.scale(1.0 / distanceTo);
-        requestedVector = requestedVector.add(scaledAvoidanceVector);
-        return requestedVector;
-    }
 
-    public Vector matchVelocity(Iterable<Boid> neighbors) {
-        Vector requestedVector = new Vector(new double[]{0, 0});
-        for (Boid b : neighbors) {
-            Vector neighborVelocity = b.getVelocity();
-            Vector matchingVector = neighborVelocity.subtract(velocity);
-            requestedVector = requestedVector.add(matchingVector);
+        // The center of mass, which lets runs of different modes be checked against each other.
+        double meanX = 0, meanY = 0;
+        for (int i = 0; i < numBoids; i++) {
+            meanX += flock.x(i) / numBoids;
+            meanY += flock.y(i) / numBoids;
         }
-        return requestedVector;
-    }
 
-    public Vector plungeDeeper(Iterable<Boid> neighbors) {
-        Vector requestedVector = new Vector(new double[]{0, 0});
-        Vector centroid = new Vector(new double[]{0, 0});
-        double neighborCnt = 0;
-        for (Boid b : neighbors) {
-            Vector neighborPosition = new Vector(new double[]{b.x(), b.y()});
-            centroid = centroid.add(neighborPosition);
-            neighborCnt++;
+        StdOut.printf("mode = %s, boids = %d, friends = %d, frames = %d, seed = %d, schedule = %s\n", mode, numBoids,
+            friends, frames, seed, pipelined ? "pipelined" : "exact");
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            StdOut.printf("%-16s %10.3f ms/frame\n", PHASES[phase], nanos[phase] / 1e6 / frames);
         }
-        centroid = centroid.scale(1.0 / neighborCnt);
-        Boid centroidPoint = new Boid(centroid.get(0), centroid.get(1));
-        Vector myPosition = new Vector(new double[]{x(), y()});
-        requestedVector = centroid.subtract(myPosition);
-        return requestedVector;
-    }
-
-    public Vector returnToWorld() {
-        Vector requestedVector = new Vector(new double[]{0, 0});
-        Vector center = new Vector(new double[]{0.5, 0.5});
-        Vector myPosition = new Vector(new double[]{x(), y()});
-        requestedVector = center.subtract(myPosition);
-        return requestedVector;
+        StdOut.printf("%-16s %10.3f ms/frame\n", "total", elapsed / 1e6 / frames);
+        StdOut.printf("%-16s %10.1f\n", "frames/s", frames / (elapsed / 1e9));
+        StdOut.printf("%-16s %10.0f bytes/frame (all threads)\n", "allocation", (double) allBytes / frames);
+        StdOut.printf("%-16s %10.0f bytes/frame (this thread)\n", "", (double) bytes / frames);
+        StdOut.printf("%-16s (%.6f, %.6f)\n", "center of mass", meanX, meanY);
+        return frames / (elapsed / 1e9);
     }
 
-    public Vector desiredAcceleration(Iterable<Boid> neighbors, Hawk hawk) {
-        Vector avoidanceVector = avoidCollision(neighbors).scale(BOID_AVOIDANCE_WEIGHT);
-        Vector hawkAvoidanceVector = avoidCollision(hawk).scale(HAWK_AVOIDANCE_WEIGHT);
-        Vector matchingVector = matchVelocity(neighbors).scale(VELOCITY_MATCH_WEIGHT);
-        Vector plungingVector = plungeDeeper(neighbors).scale(PLUNGE_DEEPER_WEIGHT);
-        Vector returnVector = returnToWorld().scale(RETURN_TO_ORIGIN_WEIGHT);
-        Vector desired = new Vector(new double[]{0, 0});
-        desired = desired.add(avoidanceVector);
-        desired = desired.add(hawkAvoidanceVector);
-        desired = desired.add(matchingVector);
-        desired = desired.add(plungingVector);
-        desired = desired.add(returnVector);
-        if (desired.magnitude() == 0.0) {
-            return desired;
+    // Returns the bytes allocated so far by each live thread, keyed by thread id. A thread that exits
+    // between two calls takes its count with it, so a run's total is a lower bound.
+    private static Map<Long, Long> allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
         }
-        return desired.direction().scale(THRUST_FACTOR);
-    }
-
-    public void draw() {
-        StdDraw.setPenColor(StdDraw.BLACK);
-        StdDraw.point(x(), y());
-    }
-
-    public Vector getVelocity() {
-        return velocity;
-    }
-
-    public Vector updatePositionAndVelocity(Iterable<Boid> neighbors, Hawk hawk) {
-        double x = x() + velocity.get(0);
-        double y = y() + velocity.get(1);
-        position = new Point2D(x, y);
-        Vector desire = desiredAcceleration(neighbors, hawk);
-        velocity = velocity.add(desire);
-        return desire;
+        return allocated;
     }
 
-    private static double distance(Vector a, Vector b) {
-        Vector c = a.subtract(b);
-        return Math.sqrt(c.dot(c));
-    }
-}
-
-class Hawk {
-    private Point2D position;
-    private Vector velocity;
-
-    public Hawk(double x, double y) {
-        position = new Point2D(x, y);
-        velocity = new Vector(new double[]{0, 0});
-    }
-
-    public Point2D position() {
-        return position;
-    }
-
-    public double x() {
-        return position.x();
-    }
-
-    public double y() {
-        return position.y();
+    // Returns true if the given schedule is "pipelined", and false if it is "exact".
+    private static boolean pipelined(String schedule) {
+        if (schedule.equals("pipelined")) {
+            return true;
+        } else if (schedule.equals("exact")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Illegal command-line argument");
     }
 
-    public Vector eatBoid(Boid boid) {
-        Vector boidPosition = new Vector(new double[]{boid.x(), boid.y()});
-        Vector myPosition = new Vector(new double[]{x(), y()});
-        return boidPosition.subtract(myPosition);
+    // Returns the index the next frame should query, from the given pipeline, and adds the time
+    // spent building it (or, when pipelined, waiting for it) to nanos.
+    private static PointST<Integer> index(FramePipeline pipeline, long[] nanos) {
+        // The entire symbol table must be rebuilt every frame. The kdtree is built by splitting on
+        // medians, so it is balanced however the boids have moved.
+        long start = System.nanoTime();
+        PointST<Integer> st = pipeline.next();
+        nanos[BUILD] += System.nanoTime() - start;
+        return st;
     }
 
-    public Vector updatePositionAndVelocity(Boid nearest) {
-        double x = x() + velocity.get(0);
-        double y = y() + velocity.get(1);
-        position = new Point2D(x, y);
-        Vector desire = eatBoid(nearest).direction().scale(0.0003);
-        velocity = velocity.add(desire);
-        return desire;
+    // Advances the boids and the hawk by one frame, using the given index of where they are now,
+    // and adds the time spent in each phase to nanos.
+    private static void step(PointST<Integer> st, BoidFlock flock, long[] nanos) {
+        long start = System.nanoTime();
+        flock.findNeighbors(st);
+        long end = System.nanoTime();
+        nanos[QUERY] += end - start;
+
+        start = end;
+        flock.update(st);
+        nanos[UPDATE] += System.nanoTime() - start;
     }
 
-    public void draw() {
+    // Draws the boids in the view [xmin, xmax] x [ymin, ymax], found with the given index of where
+    // they are (or, when pipelined, were a frame ago), and the hawk. If there are many, the view is drawn as a grid of cells shaded by
+    // how many boids each holds, so that drawing costs what is in view rather than the whole flock.
+    private static void draw(PointST<Integer> st, BoidFlock flock, double xmin, double ymin, double xmax,
+                             double ymax) {
+        if (st.count(xmin, ymin, xmax, ymax) <= LOD_THRESHOLD) {
+            StdDraw.setPenColor(StdDraw.BLACK);
+            st.range(xmin, ymin, xmax, ymax, (x, y, id) -> StdDraw.point(flock.x(id), flock.y(id)));
+        } else {
+            int[] counts = new int[LOD_CELLS * LOD_CELLS];
+            st.countGrid(xmin, ymin, xmax, ymax, LOD_CELLS, LOD_CELLS, counts);
+            int max = 0;
+            for (int count : counts) {
+                max = Math.max(max, count);
+            }
+            double halfWidth = (xmax - xmin) / LOD_CELLS / 2, halfHeight = (ymax - ymin) / LOD_CELLS / 2;
+            for (int row = 0; row < LOD_CELLS; row++) {
+                for (int col = 0; col < LOD_CELLS; col++) {
+                    int count = counts[row * LOD_CELLS + col];
+                    if (count > 0) {
+                        int shade = (int) (224 * (1.0 - (double) count / max));
+                        StdDraw.setPenColor(shade, shade, shade);
+                        StdDraw.filledRectangle(xmin + (2 * col + 1) * halfWidth, ymin + (2 * row + 1) * halfHeight,
+                            halfWidth, halfHeight);
+                    }
+                }
+            }
+        }
         StdDraw.setPenColor(StdDraw.RED);
-        StdDraw.point(x(), y());
+        StdDraw.point(flock.hawkX(), flock.hawkY());
     }
 }
@@ -0,0 +1,103 @@
+// A bounded max-heap of int handles keyed by double distances, used to collect the k closest
+// points of a k-nearest-neighbor search without allocating per candidate. Once the heap holds k
+// entries, offering a key that is smaller than the largest one replaces it.
+
+class BoundedMaxHeap {
+    private int[] handles;  // the handles, in heap order
+    private double[] keys;  // the keys of the handles, in heap order
+    private int k;          // the maximum number of entries
+    private int size;       // the current number of entries
+
+    // Constructs an empty heap holding at most k entries.
+    BoundedMaxHeap(int k) {
+        this.handles = new int[Math.max(k, 1)];
+        this.keys = new double[Math.max(k, 1)];
+        reset(k);
+    }
+
+    // Empties this heap and sets its bound to k entries, reusing its storage when possible.
+    void reset(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k is negative");
+        }
+        if (k > this.handles.length) {
+            this.handles = new int[k];
+            this.keys = new double[k];
+        }
+        this.k = k;
+        this.size = 0;
+    }
+
+    // Returns the number of entries in this heap.
+    int size() {
+        return this.size;
+    }
+
+    // Returns the key a new entry must be smaller than to be kept: the largest key once the heap
+    // is full, and positive infinity before that.
+    double bound() {
+        if (this.size < this.k) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return this.k == 0 ? Double.NEGATIVE_INFINITY : this.keys[0];
+    }
+
+    // Offers the given handle with the given key, keeping only the k smallest keys.
+    void offer(int handle, double key) {
+        if (this.size < this.k) {
+            // Appends the entry and swims it up
+            int i = this.size++;
+            while (i > 0 && this.keys[(i - 1) / 2] < key) {
+                this.handles[i] = this.handles[(i - 1) / 2];
+                this.keys[i] = this.keys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            this.handles[i] = handle;
+            this.keys[i] = key;
+        } else if (this.k > 0 && key < this.keys[0]) {
+            // Replaces the largest entry and sinks the new one down
+            sink(0, this.size, handle, key);
+        }
+    }
+
+    // Sorts the entries by increasing key, after which handle(i) and key(i) give the i-th closest
+    // entry. The heap must be reset before it is offered entries again.
+    void sort() {
+        for (int end = this.size - 1; end > 0; end--) {
+            int handle = this.handles[end];
+            double key = this.keys[end];
+            this.handles[end] = this.handles[0];
+            this.keys[end] = this.keys[0];
+            sink(0, end, handle, key);
+        }
+    }
+
+    // Returns the i-th handle.
+    int handle(int i) {
+        return this.handles[i];
+    }
+
+    // Returns the i-th key.
+    double key(int i) {
+        return this.keys[i];
+    }
+
+    // Places the given entry at position i of the heap made of the first n entries, moving larger
+    // children up until the heap order is restored.
+    private void sink(int i, int n, int handle, double key) {
+        while (2 * i + 1 < n) {
+            int j = 2 * i + 1;
+            if (j + 1 < n && this.keys[j + 1] > this.keys[j]) {
+                j++;
+            }
+            if (this.keys[j] <= key) {
+                break;
+            }
+            this.handles[i] = this.handles[j];
+            this.keys[i] = this.keys[j];
+            i = j;
+        }
+        this.handles[i] = handle;
+        this.keys[i] = key;
+    }
+}
@@ -0,0 +1,322 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dsa.Point2D;
+import dsa.RectHV;
+import stdlib.StdIn;
+import stdlib.StdOut;
+
+// A symbol table that wraps another one and caches the results of its range() and nearest()
+// searches, for callers that repeat the same searches (a visualizer polling an unmoved mouse, a
+// dashboard refreshing a fixed view). The cache holds at most a given number of results and evicts
+// the least recently used one first.
+//
+// A put() of a new point drops only the cached results it can change: a range() result whose
+// rectangle contains the point, and a nearest() result that is not full or whose farthest point is
+// no closer to the query point than the new one. Replacing the value of a point already present
+// drops nothing, since only points are cached; the primitive searches that report values go
+// through the cached points and look the values up afresh.
+public class CachingPointST<Value> implements PointST<Value> {
+    // Kinds of cached searches
+    private static final int RANGE = 0;
+    private static final int NEAREST = 1;
+
+    // Declares the instance variables
+    private final PointST<Value> st;
+    private final LinkedHashMap<Query, Result> cache;
+    private long hits, misses, evictions, invalidations;
+    private long hitNanos, missNanos;
+
+    // Constructs a symbol table that caches up to capacity search results from st.
+    public CachingPointST(PointST<Value> st, int capacity) {
+        if (st == null) {
+            throw new NullPointerException("st is null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.st = st;
+        this.cache = new LinkedHashMap<Query, Result>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Query, Result> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns true if this symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return this.st.isEmpty();
+    }
+
+    // Returns the number of key-value pairs in this symbol table.
+    public int size() {
+        return this.st.size();
+    }
+
+    // Inserts the given point and value into this symbol table.
+    public void put(Point2D p, Value value) {
+        // If the point or value to be inserted is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean present = this.st.contains(p);
+        this.st.put(p, value);
+        if (!present) {
+            invalidate(p.x(), p.y());
+        }
+    }
+
+    // Returns the value associated with the given point in this symbol table, or null.
+    public Value get(Point2D p) {
+        return this.st.get(p);
+    }
+
+    // Returns true if this symbol table contains the given point, and false otherwise.
+    public boolean contains(Point2D p) {
+        return this.st.contains(p);
+    }
+
+    // Returns all the points in this symbol table.
+    public Iterable<Point2D> points() {
+        return this.st.points();
+    }
+
+    // Returns all the points in this symbol table that are inside the given rectangle.
+    public Iterable<Point2D> range(RectHV rect) {
+        // If the given rectangle is null, throws the appropriate error
+        if (rect == null) {
+            throw new NullPointerException("rect is null");
+        }
+        long start = System.nanoTime();
+        Query query = new Query(RANGE, rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(), 0);
+        Result result = this.cache.get(query);
+        if (result != null) {
+            return hit(result, start);
+        }
+        return miss(query, new Result(this.st.range(rect), Double.NaN), start);
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the given point,
+    // or null.
+    public Point2D nearest(Point2D p) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        Iterator<Point2D> nearest = nearest(p, 1, true).iterator();
+        return nearest.hasNext() ? nearest.next() : null;
+    }
+
+    // Returns up to k points from this symbol table that are different from and closest to the
+    // given point.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return nearest(p, k, false);
+    }
+
+    // Returns the number of searches answered from the cache.
+    public long hits() {
+        return this.hits;
+    }
+
+    // Returns the number of searches passed on to the wrapped symbol table.
+    public long misses() {
+        return this.misses;
+    }
+
+    // Returns the fraction of searches answered from the cache, or 0 if there were none.
+    public double hitRatio() {
+        long total = this.hits + this.misses;
+        return total == 0 ? 0.0 : (double) this.hits / total;
+    }
+
+    // Returns the number of results evicted to make room for newer ones.
+    public long evictions() {
+        return this.evictions;
+    }
+
+    // Returns the number of results dropped because a put() could have changed them.
+    public long invalidations() {
+        return this.invalidations;
+    }
+
+    // Returns the mean latency, in nanoseconds, of searches answered from the cache.
+    public double meanHitNanos() {
+        return this.hits == 0 ? 0.0 : (double) this.hitNanos / this.hits;
+    }
+
+    // Returns the mean latency, in nanoseconds, of searches passed on to the wrapped symbol table.
+    public double meanMissNanos() {
+        return this.misses == 0 ? 0.0 : (double) this.missNanos / this.misses;
+    }
+
+    // Returns the k nearest points to p, cached under the single nearest point search if single is
+    // true (so that nearest(p) and nearest(p, 1) answer alike from one entry).
+    private Iterable<Point2D> nearest(Point2D p, int k, boolean single) {
+        long start = System.nanoTime();
+        Query query = new Query(NEAREST, p.x(), p.y(), 0, 0, k);
+        Result result = this.cache.get(query);
+        if (result != null) {
+            return hit(result, start);
+        }
+        Iterable<Point2D> points;
+        if (single) {
+            Point2D nearest = this.st.nearest(p);
+            points = nearest == null ? Collections.<Point2D>emptyList() : Collections.singletonList(nearest);
+        } else {
+            points = this.st.nearest(p, k);
+        }
+
+        // Records how far the farthest point found is, or infinity if fewer than k were found, in
+        // which case any new point changes the result
+        double radius = 0.0;
+        int count = 0;
+        for (Point2D q : points) {
+            radius = Math.max(radius, q.distanceSquaredTo(p));
+            count++;
+        }
+        if (count < k) {
+            radius = Double.POSITIVE_INFINITY;
+        }
+        return miss(query, new Result(points, radius), start);
+    }
+
+    // Records a cache hit that started at start, and returns the cached points.
+    private Iterable<Point2D> hit(Result result, long start) {
+        this.hits++;
+        this.hitNanos += System.nanoTime() - start;
+        return result.points;
+    }
+
+    // Records a cache miss that started at start, caches the result under query, and returns the
+    // cached points.
+    private Iterable<Point2D> miss(Query query, Result result, long start) {
+        this.cache.put(query, result);
+        this.misses++;
+        this.missNanos += System.nanoTime() - start;
+        return result.points;
+    }
+
+    // Drops the cached results that the new point (x, y) could change.
+    private void invalidate(double x, double y) {
+        Iterator<Map.Entry<Query, Result>> entries = this.cache.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Query, Result> entry = entries.next();
+            Query q = entry.getKey();
+            boolean affected;
+            if (q.kind == RANGE) {
+                affected = x >= q.a && x <= q.c && y >= q.b && y <= q.d;
+            } else {
+                double dx = x - q.a, dy = y - q.b;
+                affected = (dx != 0 || dy != 0) && dx * dx + dy * dy <= entry.getValue().radius;
+            }
+            if (affected) {
+                entries.remove();
+                this.invalidations++;
+            }
+        }
+    }
+
+    // A cached search: its kind, its rectangle [a, c] x [b, d] (for range()) or query point (a, b)
+    // and k (for nearest()).
+    private static class Query {
+        private final int kind;
+        private final double a, b, c, d;
+        private final int k;
+
+        // Constructs a search key.
+        Query(int kind, double a, double b, double c, double d, int k) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.k = k;
+        }
+
+        // Returns true if other is the same search, and false otherwise.
+        public boolean equals(Object other) {
+            if (!(other instanceof Query)) {
+                return false;
+            }
+            Query that = (Query) other;
+            return this.kind == that.kind && this.k == that.k
+                && Double.compare(this.a, that.a) == 0 && Double.compare(this.b, that.b) == 0
+                && Double.compare(this.c, that.c) == 0 && Double.compare(this.d, that.d) == 0;
+        }
+
+        // Returns a hash code for this search.
+        public int hashCode() {
+            int hash = 31 * this.kind + this.k;
+            hash = 31 * hash + Double.hashCode(this.a);
+            hash = 31 * hash + Double.hashCode(this.b);
+            hash = 31 * hash + Double.hashCode(this.c);
+            return 31 * hash + Double.hashCode(this.d);
+        }
+    }
+
+    // A cached result: an unmodifiable copy of the points found, and for nearest() the squared
+    // distance within which a new point changes the result.
+    private static class Result {
+        private final List<Point2D> points;
+        private final double radius;
+
+        // Constructs a result holding a copy of the given points.
+        Result(Iterable<Point2D> points, double radius) {
+            Point2D[] copy = new Point2D[0];
+            int count = 0;
+            for (Point2D p : points) {
+                if (count == copy.length) {
+                    copy = Arrays.copyOf(copy, Math.max(4, 2 * count));
+                }
+                copy[count++] = p;
+            }
+            this.points = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(copy, count)));
+            this.radius = radius;
+        }
+    }
+
+    // Unit tests the data type.
+    public static void main(String[] args) {
+        CachingPointST<Integer> st = new CachingPointST<Integer>(new KdTreePointST<Integer>(), 16);
+        double qx = Double.parseDouble(args[0]);
+        double qy = Double.parseDouble(args[1]);
+        int k = Integer.parseInt(args[2]);
+        Point2D query = new Point2D(qx, qy);
+        RectHV rect = new RectHV(-1, -1, 1, 1);
+        int i = 0;
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            Point2D p = new Point2D(x, y);
+            st.put(p, i++);
+        }
+        for (int round = 0; round < 2; round++) {
+            StdOut.printf("st.range(%s):\n", rect);
+            for (Point2D p : st.range(rect)) {
+                StdOut.println("  " + p);
+            }
+            StdOut.printf("st.nearest(%s) = %s\n", query, st.nearest(query));
+            StdOut.printf("st.nearest(%s, %d):\n", query, k);
+            for (Point2D p : st.nearest(query, k)) {
+                StdOut.println("  " + p);
+            }
+        }
+        StdOut.printf("hits = %d, misses = %d, hit ratio = %.2f\n", st.hits(), st.misses(), st.hitRatio());
+        StdOut.printf("mean hit = %.0f ns, mean miss = %.0f ns\n", st.meanHitNanos(), st.meanMissNanos());
+    }
+}
@@ -0,0 +1,94 @@
+// Accepts n (int), d (double), and trials (int) as command-line arguments; builds two
+// KdTreePointSTs A and B over n random points each in the unit square; and times finding all the
+// pairs (a in A, b in B) at most d apart using one range() call per point of A, a sequential
+// join(), and a parallel join(), and then the pairs within A alone using range() calls and
+// selfJoin(). Reports the best time of each over the given number of trials, along with the number
+// of pairs found, which must agree within each group.
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+public class DistanceJoinBenchmark {
+    // Entry point.
+    public static void main(String[] args) {
+        int n = Integer.parseInt(args[0]);
+        double d = Double.parseDouble(args[1]);
+        int trials = Integer.parseInt(args[2]);
+
+        // Build the trees over n random points each.
+        StdRandom.setSeed(42);
+        double[] a = new double[2 * n];
+        double[] b = new double[2 * n];
+        for (int i = 0; i < 2 * n; i++) {
+            a[i] = StdRandom.uniform();
+            b[i] = StdRandom.uniform();
+        }
+        KdTreePointST<Integer> as = KdTreePointST.build(a, i -> i);
+        KdTreePointST<Integer> bs = KdTreePointST.build(b, i -> i);
+
+        long[] best = new long[5];
+        long[] found = new long[5];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int trial = 0; trial < trials; trial++) {
+            // One range() call per point of A, keeping the points of B within d.
+            long[] count = new long[1];
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                double x = a[2 * i], y = a[2 * i + 1];
+                bs.range(x - d, y - d, x + d, y + d, (bx, by, value) -> {
+                    if ((bx - x) * (bx - x) + (by - y) * (by - y) <= d * d) {
+                        count[0]++;
+                    }
+                });
+            }
+            record(best, found, 0, start, count[0]);
+
+            // One sequential join.
+            count[0] = 0;
+            start = System.nanoTime();
+            as.join(bs, d, (ax, ay, av, bx, by, bv) -> count[0]++);
+            record(best, found, 1, start, count[0]);
+
+            // One parallel join.
+            LongAdder pairs = new LongAdder();
+            start = System.nanoTime();
+            as.join(bs, d, (ax, ay, av, bx, by, bv) -> pairs.increment(), true);
+            record(best, found, 2, start, pairs.sum());
+
+            // One range() call per point of A into A, keeping each pair once.
+            count[0] = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                double x = a[2 * i], y = a[2 * i + 1];
+                as.range(x - d, y - d, x + d, y + d, (bx, by, value) -> {
+                    if ((bx > x || bx == x && by > y) && (bx - x) * (bx - x) + (by - y) * (by - y) <= d * d) {
+                        count[0]++;
+                    }
+                });
+            }
+            record(best, found, 3, start, count[0]);
+
+            // One self-join.
+            count[0] = 0;
+            start = System.nanoTime();
+            as.selfJoin(d, (ax, ay, av, bx, by, bv) -> count[0]++);
+            record(best, found, 4, start, count[0]);
+        }
+
+        StdOut.printf("%d points per tree, d = %s\n", n, d);
+        StdOut.printf("range() per point:   %8.3f ms, %d pairs\n", best[0] / 1e6, found[0]);
+        StdOut.printf("join():              %8.3f ms, %d pairs\n", best[1] / 1e6, found[1]);
+        StdOut.printf("parallel join():     %8.3f ms, %d pairs\n", best[2] / 1e6, found[2]);
+        StdOut.printf("self range():        %8.3f ms, %d pairs\n", best[3] / 1e6, found[3]);
+        StdOut.printf("selfJoin():          %8.3f ms, %d pairs\n", best[4] / 1e6, found[4]);
+    }
+
+    // Records, as the i-th measurement, the time elapsed since start and the number of pairs found.
+    private static void record(long[] best, long[] found, int i, long start, long pairs) {
+        best[i] = Math.min(best[i], System.nanoTime() - start);
+        found[i] = pairs;
+    }
+}
@@ -0,0 +1,696 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import dsa.Point2D;
+import dsa.RectHV;
+
+// A KdTreePointST whose contents survive restarts. Every put is appended to a write-ahead log in
+// a directory before it is applied, and once the log has grown long enough the whole table is
+// written to a snapshot there and the log is emptied. Opening the directory again recovers the
+// table: the snapshot's points and the log's are read into one coordinate array, and the tree is
+// bulk built from it by KdTreePointST.build(), in parallel, with a logged put of a point
+// overriding the snapshot's value for it as a later put would.
+//
+// Puts are logged in groups: a group is written when it holds GROUP_RECORDS records, or by
+// commit() or close(), or once it is GROUP_NANOS old, by the first put after that or else by a
+// flusher thread shared by all tables, which wakes GROUP_NANOS after the group's first record. What
+// reaches the disk depends on the sync policy:
+//    SYNC_ALWAYS: every put is written and forced to the disk before it returns.
+//    SYNC_GROUP:  every group is forced to the disk as it is written, so a crash loses at most
+//                 the puts of the last GROUP_NANOS (10 ms), plus however late the flusher thread
+//                 is scheduled, and none older than that even if no put follows them.
+//    SYNC_NEVER:  groups are written on the same schedule but left to the operating system to
+//                 flush.
+//
+// Log:      the 4 bytes "PSTW" and a little-endian int version, followed by records made of a
+//           little-endian int payload length, the CRC-32C of the payload, and the payload: a
+//           byte 1 (put), the point's x and y as little-endian doubles, and the encoded value.
+//           Recovery stops at the first record that is cut short or fails its check, which is
+//           what a crash in the middle of a write leaves, and truncates the log there.
+// Snapshot: the 4 bytes "PSTS", a little-endian int version, a little-endian long point count,
+//           the coordinates {x0, y0, x1, y1, ...} as little-endian doubles, each value as a
+//           little-endian int length and its encoded bytes, and the CRC-32C of all of that. It is
+//           written to a temporary file and renamed over the previous snapshot, so a crash leaves
+//           one snapshot or the other intact.
+// Recovery reads both files through a buffer of BUFFER_BYTES, so neither is limited in size.
+//
+// The table must be used by one thread at a time; the flusher thread takes a lock of its own. It
+// must be closed when it is no longer needed, which writes and forces the log; every later
+// operation throws an IllegalStateException.
+public class DurablePointST<Value> implements PointST<Value>, AutoCloseable {
+    // Sync policies
+    public static final int SYNC_ALWAYS = 0;
+    public static final int SYNC_GROUP = 1;
+    public static final int SYNC_NEVER = 2;
+
+    // The most records a group collects, and the longest it collects them for
+    private static final int GROUP_RECORDS = 1 << 10;
+    private static final long GROUP_NANOS = 10 * 1000000L;
+
+    // A snapshot is taken once the log holds this many records and half as many as the table has
+    // points, so that recovery never replays a log much longer than the snapshot
+    private static final int SNAPSHOT_RECORDS = 1 << 16;
+
+    // File format constants
+    private static final byte[] LOG_MAGIC = {'P', 'S', 'T', 'W'};
+    private static final byte[] SNAPSHOT_MAGIC = {'P', 'S', 'T', 'S'};
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 8;
+    private static final int SNAPSHOT_HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int PUT_BYTES = 17;
+    private static final byte PUT = 1;
+    private static final int MAX_VALUE_BYTES = 1 << 16;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    // The thread that writes out the groups no put has written out in time, shared by all tables
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "durable-point-st-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Declares the instance variables
+    private final Path directory;
+    private final Path log, snapshot, snapshotTemp;
+    private final ValueCodec<Value> codec;
+    private final int syncPolicy;
+    private final FileChannel channel;      // the log
+    private final ByteBuffer group;         // the records of the group being collected
+    private final Object groupLock;         // guards the group and the log against the flusher
+    private final CRC32C crc;
+    private KdTreePointST<Value> st;
+    private int grouped;                    // the number of records in the group
+    private long groupStart;                // when the group's first record was added
+    private long logRecords;                // the number of records in the log, written or not
+    private boolean closed;
+
+    // Metrics
+    private long syncs, snapshots;
+    private final long recoveredFromSnapshot, recoveredFromLog, recoveryNanos;
+
+    // Constructs a symbol table kept in the given directory, recovering its contents from the
+    // snapshot and log there (if any), with values converted by the given codec and the log kept
+    // with the given sync policy.
+    public DurablePointST(String directory, ValueCodec<Value> codec, int syncPolicy) {
+        if (directory == null) {
+            throw new NullPointerException("directory is null");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec is null");
+        }
+        if (syncPolicy < SYNC_ALWAYS || syncPolicy > SYNC_NEVER) {
+            throw new IllegalArgumentException("unknown sync policy " + syncPolicy);
+        }
+        this.directory = Paths.get(directory);
+        this.log = this.directory.resolve("wal");
+        this.snapshot = this.directory.resolve("snapshot");
+        this.snapshotTemp = this.directory.resolve("snapshot.tmp");
+        this.codec = codec;
+        this.syncPolicy = syncPolicy;
+        this.group = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.groupLock = new Object();
+        this.crc = new CRC32C();
+
+        // Reads the snapshot and the log, and builds the tree from their points in one go
+        long start = System.nanoTime();
+        Points points = new Points();
+        try {
+            Files.createDirectories(this.directory);
+            if (Files.exists(this.snapshot)) {
+                readSnapshot(points);
+            }
+            this.recoveredFromSnapshot = points.n;
+            this.channel = FileChannel.open(this.log, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            readLog(points);
+            this.recoveredFromLog = points.n - this.recoveredFromSnapshot;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not open " + directory, e);
+        }
+        Object[] values = points.values;
+        this.st = KdTreePointST.build(Arrays.copyOf(points.coords, 2 * points.n), i -> value(values, i));
+        this.recoveryNanos = System.nanoTime() - start;
+    }
+
+    // Constructs a symbol table kept in the given directory, with values converted by the given
+    // codec and the log kept with the SYNC_GROUP policy.
+    public DurablePointST(String directory, ValueCodec<Value> codec) {
+        this(directory, codec, SYNC_GROUP);
+    }
+
+    // Returns true if this symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        checkOpen();
+        return this.st.isEmpty();
+    }
+
+    // Returns the number of key-value pairs in this symbol table.
+    public int size() {
+        checkOpen();
+        return this.st.size();
+    }
+
+    // Inserts the given point and value into this symbol table.
+    public void put(Point2D p, Value value) {
+        // If the point to be inserted is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        put(p.x(), p.y(), value);
+    }
+
+    // Inserts the point (x, y) and the given value into this symbol table.
+    public void put(double x, double y, Value value) {
+        // If the value to be inserted is null or too large to log, or the point is not one, throws the
+        // appropriate error before anything is logged
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            throw new IllegalArgumentException("(" + x + ", " + y + ") is not a point");
+        }
+        checkOpen();
+        byte[] bytes = this.codec.encode(value);
+        if (bytes.length > MAX_VALUE_BYTES) {
+            throw new IllegalArgumentException("value takes more than " + MAX_VALUE_BYTES + " bytes");
+        }
+
+        // Adds the record to the group, writing the group out first if it is full, and has the
+        // flusher look at a new group once it is due
+        int length = PUT_BYTES + bytes.length;
+        synchronized (this.groupLock) {
+            if (this.group.remaining() < RECORD_HEADER_BYTES + length) {
+                flush(this.syncPolicy != SYNC_NEVER);
+            }
+            int start = this.group.position();
+            this.group.putInt(length).putInt(0).put(PUT).putDouble(x).putDouble(y).put(bytes);
+            this.crc.reset();
+            this.crc.update(this.group.array(), start + RECORD_HEADER_BYTES, length);
+            this.group.putInt(start + 4, (int) this.crc.getValue());
+            if (this.grouped++ == 0) {
+                this.groupStart = System.nanoTime();
+                if (this.syncPolicy != SYNC_ALWAYS) {
+                    FLUSHER.schedule(this::flushIfDue, GROUP_NANOS, TimeUnit.NANOSECONDS);
+                }
+            }
+            this.logRecords++;
+        }
+
+        // Applies the put, and writes the group out if the policy or its size or age calls for it
+        this.st.put(x, y, value);
+        synchronized (this.groupLock) {
+            if (this.syncPolicy == SYNC_ALWAYS || this.grouped >= GROUP_RECORDS
+                || this.grouped > 0 && System.nanoTime() - this.groupStart >= GROUP_NANOS) {
+                flush(this.syncPolicy != SYNC_NEVER);
+            }
+        }
+        if (this.logRecords >= SNAPSHOT_RECORDS && this.logRecords >= this.st.size() / 2) {
+            snapshot();
+        }
+    }
+
+    // Returns the value associated with the given point in this symbol table, or null.
+    public Value get(Point2D p) {
+        checkOpen();
+        return this.st.get(p);
+    }
+
+    // Returns the value associated with the point (x, y) in this symbol table, or null.
+    public Value get(double x, double y) {
+        checkOpen();
+        return this.st.get(x, y);
+    }
+
+    // Returns true if this symbol table contains the given point, and false otherwise.
+    public boolean contains(Point2D p) {
+        checkOpen();
+        return this.st.contains(p);
+    }
+
+    // Returns true if this symbol table contains the point (x, y), and false otherwise.
+    public boolean contains(double x, double y) {
+        checkOpen();
+        return this.st.contains(x, y);
+    }
+
+    // Returns all the points in this symbol table.
+    public Iterable<Point2D> points() {
+        checkOpen();
+        return this.st.points();
+    }
+
+    // Returns all the points in this symbol table that are inside the given rectangle.
+    public Iterable<Point2D> range(RectHV rect) {
+        checkOpen();
+        return this.st.range(rect);
+    }
+
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        checkOpen();
+        this.st.range(xmin, ymin, xmax, ymax, sink);
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the given point,
+    // or null.
+    public Point2D nearest(Point2D p) {
+        checkOpen();
+        return this.st.nearest(p);
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (x, y), or null.
+    public Point2D nearest(double x, double y) {
+        checkOpen();
+        return this.st.nearest(x, y);
+    }
+
+    // Returns up to k points from this symbol table that are different from and closest to the
+    // given point.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        checkOpen();
+        return this.st.nearest(p, k);
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (x, y).
+    public void nearest(double x, double y, int k, PointSink<Value> sink) {
+        checkOpen();
+        this.st.nearest(x, y, k, sink);
+    }
+
+    // Writes out the puts not yet written to the log and forces the log to the disk, whatever the
+    // sync policy.
+    public void commit() {
+        checkOpen();
+        synchronized (this.groupLock) {
+            flush(true);
+        }
+    }
+
+    // Writes the whole table to a new snapshot, which replaces the previous one, and empties the
+    // log.
+    public void snapshot() {
+        checkOpen();
+        synchronized (this.groupLock) {
+            flush(true);
+        }
+
+        // The group stays empty until the next put, so the flusher leaves the log alone from here on
+
+        // Collects the points and values first, since writing them out may fail, and refuses to
+        // write a snapshot that would leave out any of them
+        int n = this.st.size();
+        double[] coords = new double[2 * n];
+        Object[] values = new Object[n];
+        int[] count = new int[1];
+        this.st.range(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.POSITIVE_INFINITY, (x, y, value) -> {
+                coords[2 * count[0]] = x;
+                coords[2 * count[0] + 1] = y;
+                values[count[0]++] = value;
+            });
+        if (count[0] != n) {
+            throw new IllegalStateException("found " + count[0] + " of the " + n + " points to snapshot");
+        }
+
+        try {
+            try (FileChannel out = FileChannel.open(this.snapshotTemp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                this.crc.reset();
+                buffer.put(SNAPSHOT_MAGIC).putInt(VERSION).putLong(n);
+                for (double c : coords) {
+                    if (buffer.remaining() < 8) {
+                        drain(out, buffer);
+                    }
+                    buffer.putDouble(c);
+                }
+                for (int i = 0; i < n; i++) {
+                    byte[] bytes = this.codec.encode(value(values, i));
+                    if (buffer.remaining() < 4 + bytes.length) {
+                        drain(out, buffer);
+                    }
+                    buffer.putInt(bytes.length).put(bytes);
+                }
+                drain(out, buffer);
+                buffer.putInt((int) this.crc.getValue()).flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            Files.move(this.snapshotTemp, this.snapshot, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+
+            // The snapshot now holds every logged put, so the log can start over
+            this.channel.truncate(LOG_HEADER_BYTES);
+            this.channel.position(LOG_HEADER_BYTES);
+            this.channel.force(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write a snapshot to " + this.directory, e);
+        }
+        this.logRecords = 0;
+        this.snapshots++;
+    }
+
+    // Writes out and forces the log, and releases it. Closing an already closed table has no
+    // effect.
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        synchronized (this.groupLock) {
+            flush(true);
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("could not close the log in " + this.directory, e);
+            }
+            this.closed = true;
+        }
+    }
+
+    // Returns the number of times the log has been forced to the disk.
+    public long syncs() {
+        synchronized (this.groupLock) {
+            return this.syncs;
+        }
+    }
+
+    // Returns the number of snapshots written.
+    public long snapshots() {
+        return this.snapshots;
+    }
+
+    // Returns the number of records in the log.
+    public long logRecords() {
+        return this.logRecords;
+    }
+
+    // Returns the number of points read from the snapshot on recovery.
+    public long recoveredFromSnapshot() {
+        return this.recoveredFromSnapshot;
+    }
+
+    // Returns the number of puts replayed from the log on recovery.
+    public long recoveredFromLog() {
+        return this.recoveredFromLog;
+    }
+
+    // Returns the time recovery took, in nanoseconds.
+    public long recoveryNanos() {
+        return this.recoveryNanos;
+    }
+
+    // Reads the points and values of the snapshot into points, checking the whole file against its
+    // CRC before decoding any of it.
+    private void readSnapshot(Points points) throws IOException {
+        try (FileChannel in = FileChannel.open(this.snapshot, StandardOpenOption.READ)) {
+            long size = in.size();
+            Input input = new Input(in, 0);
+            ByteBuffer buffer = input.buffer;
+            if (size < SNAPSHOT_HEADER_BYTES + 4 || !input.fill(SNAPSHOT_HEADER_BYTES)
+                || !hasMagic(buffer, SNAPSHOT_MAGIC)) {
+                throw new IllegalArgumentException("not a snapshot: " + this.snapshot);
+            }
+            int version = buffer.getInt(SNAPSHOT_MAGIC.length);
+            long n = buffer.getLong(SNAPSHOT_MAGIC.length + 4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported snapshot version " + version);
+            }
+            if (n < 0 || n > Integer.MAX_VALUE / 2 - 1 || SNAPSHOT_HEADER_BYTES + 20 * n + 4 > size
+                || !hasChecksum(in, size)) {
+                throw new IllegalArgumentException("corrupt snapshot: " + this.snapshot);
+            }
+
+            // Reads the coordinates in bulk a buffer at a time, and then the values one by one
+            points.ensureCapacity((int) n);
+            buffer.position(SNAPSHOT_HEADER_BYTES);
+            for (int i = 0; i < 2 * n; ) {
+                if (!input.fill(8)) {
+                    throw new IllegalArgumentException("corrupt snapshot: " + this.snapshot);
+                }
+                int m = (int) Math.min(2 * n - i, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().get(points.coords, i, m);
+                buffer.position(buffer.position() + 8 * m);
+                i += m;
+            }
+            for (int i = 0; i < n; i++) {
+                int length = input.fill(4) ? buffer.getInt() : -1;
+                if (length < 0 || length > MAX_VALUE_BYTES || !input.fill(length)) {
+                    throw new IllegalArgumentException("corrupt snapshot: " + this.snapshot);
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                points.values[i] = this.codec.decode(bytes);
+            }
+            if (input.position() != size - 4) {
+                throw new IllegalArgumentException("corrupt snapshot: " + this.snapshot);
+            }
+            points.n = (int) n;
+        }
+    }
+
+    // Returns true if the CRC-32C of all but the last 4 bytes of the given file of the given size
+    // matches those 4 bytes.
+    private boolean hasChecksum(FileChannel in, long size) throws IOException {
+        Input input = new Input(in, 0);
+        this.crc.reset();
+        for (long left = size - 4; left > 0; ) {
+            int m = (int) Math.min(left, BUFFER_BYTES);
+            if (!input.fill(m)) {
+                return false;
+            }
+            ByteBuffer chunk = input.buffer.duplicate();
+            chunk.limit(chunk.position() + m);
+            this.crc.update(chunk);
+            input.buffer.position(input.buffer.position() + m);
+            left -= m;
+        }
+        return input.fill(4) && (int) this.crc.getValue() == input.buffer.getInt();
+    }
+
+    // Reads the puts logged into points, truncates the log after the last intact record, and
+    // leaves the log positioned there. An empty log is given its header.
+    private void readLog(Points points) throws IOException {
+        long size = this.channel.size();
+        if (size < LOG_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(LOG_MAGIC).putInt(VERSION).flip();
+            this.channel.truncate(0);
+            this.channel.write(header, 0);
+            this.channel.force(true);
+            this.channel.position(LOG_HEADER_BYTES);
+            return;
+        }
+        Input input = new Input(this.channel, 0);
+        ByteBuffer buffer = input.buffer;
+        input.fill(LOG_HEADER_BYTES);
+        if (!hasMagic(buffer, LOG_MAGIC) || buffer.getInt(LOG_MAGIC.length) != VERSION) {
+            throw new IllegalArgumentException("not a log, or an unsupported version: " + this.log);
+        }
+        buffer.position(LOG_HEADER_BYTES);
+        long position = LOG_HEADER_BYTES;
+        while (input.fill(RECORD_HEADER_BYTES)) {
+            int length = buffer.getInt(buffer.position());
+            if (length < PUT_BYTES || length > PUT_BYTES + MAX_VALUE_BYTES
+                || !input.fill(RECORD_HEADER_BYTES + length)) {
+                break;
+            }
+            int record = buffer.position(), payload = record + RECORD_HEADER_BYTES;
+            this.crc.reset();
+            this.crc.update(buffer.duplicate().position(payload).limit(payload + length));
+            if ((int) this.crc.getValue() != buffer.getInt(record + 4) || buffer.get(payload) != PUT) {
+                break;
+            }
+            byte[] bytes = new byte[length - PUT_BYTES];
+            buffer.get(payload + PUT_BYTES, bytes);
+            points.add(buffer.getDouble(payload + 1), buffer.getDouble(payload + 9), this.codec.decode(bytes));
+            buffer.position(payload + length);
+            position = input.position();
+            this.logRecords++;
+        }
+        if (position < size) {
+            this.channel.truncate(position);
+            this.channel.force(true);
+        }
+        this.channel.position(position);
+    }
+
+    // Writes the group out to the log, forcing the log to the disk if force is true. If either
+    // fails, the group is kept whole and the log is put back where the group was to start, so
+    // that the next flush writes the group again over whatever part of it got written. Must be
+    // called holding the group lock.
+    private void flush(boolean force) {
+        int end = this.group.position();
+        long start = -1;
+        boolean flushed = false;
+        this.group.flip();
+        try {
+            start = this.channel.position();
+            while (this.group.hasRemaining()) {
+                this.channel.write(this.group);
+            }
+            if (force) {
+                this.channel.force(false);
+                this.syncs++;
+            }
+            flushed = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write the log in " + this.directory, e);
+        } finally {
+            if (flushed) {
+                this.group.clear();
+                this.grouped = 0;
+            } else {
+                this.group.limit(this.group.capacity()).position(end);
+                try {
+                    if (start >= 0) {
+                        this.channel.position(start);
+                    }
+                } catch (IOException e) {
+                    // The log cannot be written at all; the next flush reports it
+                }
+            }
+        }
+    }
+
+    // Writes the group out if it has become GROUP_NANOS old without a put writing it out. Runs on
+    // the flusher thread; a failure leaves the group for the next put, commit() or close() to
+    // write again and report.
+    private void flushIfDue() {
+        synchronized (this.groupLock) {
+            if (!this.closed && this.grouped > 0 && System.nanoTime() - this.groupStart >= GROUP_NANOS) {
+                try {
+                    flush(this.syncPolicy != SYNC_NEVER);
+                } catch (IllegalStateException e) {
+                    // Left in the group, as above
+                }
+            }
+        }
+    }
+
+    // Writes out and clears the contents of buffer, adding them to the running checksum.
+    private void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        this.crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Forces the directory's entries to the disk, so that a renamed snapshot stays renamed, on
+    // platforms that allow a directory to be opened.
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // The platform does not support it; the rename is as durable as it makes it
+        }
+    }
+
+    // Returns true if buffer starts with the given magic bytes.
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the i-th of the given values.
+    @SuppressWarnings("unchecked")
+    private static <Value> Value value(Object[] values, int i) {
+        return (Value) values[i];
+    }
+
+    // Throws an IllegalStateException if this symbol table has been closed.
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("symbol table is closed");
+        }
+    }
+
+    // A file read from a given position through a buffer of BUFFER_BYTES, which is refilled as it
+    // is consumed, so that a file of any size can be read.
+    private static class Input {
+        private final FileChannel in;
+        private final ByteBuffer buffer;        // the bytes read and not yet consumed
+        private long end;                       // the file position just past the buffer's bytes
+
+        // Constructs an input reading in from the given position.
+        Input(FileChannel in, long position) {
+            this.in = in;
+            this.buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            this.buffer.flip();
+            this.end = position;
+        }
+
+        // Returns true if the buffer holds at least the given number of unconsumed bytes (at most
+        // BUFFER_BYTES), reading more of the file if it must, and false if the file ends first.
+        // Moves the unconsumed bytes to the start of the buffer when it reads.
+        boolean fill(int bytes) throws IOException {
+            if (this.buffer.remaining() >= bytes) {
+                return true;
+            }
+            this.buffer.compact();
+            while (this.buffer.position() < bytes) {
+                int read = this.in.read(this.buffer, this.end);
+                if (read < 0) {
+                    break;
+                }
+                this.end += read;
+            }
+            this.buffer.flip();
+            return this.buffer.remaining() >= bytes;
+        }
+
+        // Returns the file position of the next unconsumed byte.
+        long position() {
+            return this.end - this.buffer.remaining();
+        }
+    }
+
+    // The points and values read on recovery, in the order they were put.
+    private static class Points {
+        private double[] coords = new double[32];
+        private Object[] values = new Object[16];
+        private int n;
+
+        // Makes room for at least the given number of points.
+        void ensureCapacity(int capacity) {
+            if (capacity > this.values.length) {
+                this.coords = Arrays.copyOf(this.coords, 2 * capacity);
+                this.values = Arrays.copyOf(this.values, capacity);
+            }
+        }
+
+        // Adds the point (x, y) and its value.
+        void add(double x, double y, Object value) {
+            if (this.n == this.values.length) {
+                ensureCapacity(2 * this.n);
+            }
+            this.coords[2 * this.n] = x;
+            this.coords[2 * this.n + 1] = y;
+            this.values[this.n++] = value;
+        }
+    }
+}
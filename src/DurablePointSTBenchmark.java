@@ -0,0 +1,110 @@
+// Accepts n (int) and directory (String) as command-line arguments; puts n random points in the
+// unit square into a DurablePointST kept in the directory under each sync policy, and reports the
+// write throughput (puts per second), the number of times the log was forced to the disk, and the
+// number of snapshots taken along the way. SYNC_ALWAYS forces the log once per put, so it is timed
+// over at most ALWAYS_PUTS points. Then times recovery from what the SYNC_GROUP run left behind (a
+// snapshot and a log tail), and again after an explicit snapshot (a snapshot alone), next to the
+// time replaying the same points with one put() each into a fresh KdTreePointST takes, and checks
+// that the recovered tables hold exactly the points and values put. Any snapshot and log already
+// in the directory are deleted first.
+//
+// Example: java DurablePointSTBenchmark 1000000 /tmp/durable
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+public class DurablePointSTBenchmark {
+    // The most points timed under SYNC_ALWAYS
+    private static final int ALWAYS_PUTS = 2000;
+
+    // Entry point.
+    public static void main(String[] args) {
+        int n = Integer.parseInt(args[0]);
+        String directory = args[1];
+
+        // The points put; each point's value is its index.
+        StdRandom.setSeed(42);
+        double[] coords = new double[2 * n];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = StdRandom.uniform();
+        }
+
+        String[] names = {"always", "group", "never"};
+        int[] policies = {DurablePointST.SYNC_ALWAYS, DurablePointST.SYNC_GROUP, DurablePointST.SYNC_NEVER};
+        StdOut.printf("%-8s %10s %14s %10s %10s\n", "policy", "puts", "puts/s", "syncs", "snapshots");
+        for (int p = 0; p < policies.length; p++) {
+            int m = policies[p] == DurablePointST.SYNC_ALWAYS ? Math.min(n, ALWAYS_PUTS) : n;
+            clear(directory);
+            DurablePointST<Integer> st = new DurablePointST<Integer>(directory, ValueCodec.INTEGER, policies[p]);
+            long start = System.nanoTime();
+            for (int i = 0; i < m; i++) {
+                st.put(coords[2 * i], coords[2 * i + 1], i);
+            }
+            st.close();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            StdOut.printf("%-8s %10d %14.0f %10d %10d\n", names[p], m, m / seconds, st.syncs(), st.snapshots());
+        }
+
+        // Leaves the directory as the SYNC_GROUP run would, and recovers from it.
+        clear(directory);
+        DurablePointST<Integer> st = new DurablePointST<Integer>(directory, ValueCodec.INTEGER);
+        for (int i = 0; i < n; i++) {
+            st.put(coords[2 * i], coords[2 * i + 1], i);
+        }
+        st.close();
+        StdOut.println();
+        StdOut.printf("%-22s %10s %10s %12s %10s\n", "recovery", "snapshot", "log", "ms", "bad");
+        recover(directory, coords, "snapshot + log tail");
+
+        // Snapshots everything, and recovers again.
+        st = new DurablePointST<Integer>(directory, ValueCodec.INTEGER);
+        long start = System.nanoTime();
+        st.snapshot();
+        double snapshotMillis = (System.nanoTime() - start) / 1e6;
+        st.close();
+        recover(directory, coords, "snapshot alone");
+
+        // Replays the points one put() at a time, as a recovery that did not bulk build would.
+        start = System.nanoTime();
+        KdTreePointST<Integer> kdtree = new KdTreePointST<Integer>();
+        for (int i = 0; i < n; i++) {
+            kdtree.put(coords[2 * i], coords[2 * i + 1], i);
+        }
+        StdOut.printf("%-22s %10s %10d %12.1f %10s\n", "put() replay", "-", n, (System.nanoTime() - start) / 1e6, "-");
+        StdOut.printf("\nsnapshot of %d points: %.1f ms\n", n, snapshotMillis);
+        clear(directory);
+    }
+
+    // Opens the table in the given directory, reports how long recovering it took and from what,
+    // and checks it against the points put.
+    private static void recover(String directory, double[] coords, String label) {
+        DurablePointST<Integer> st = new DurablePointST<Integer>(directory, ValueCodec.INTEGER);
+        int bad = st.size() == coords.length / 2 ? 0 : 1;
+        for (int i = 0; i < coords.length / 2; i++) {
+            Integer value = st.get(coords[2 * i], coords[2 * i + 1]);
+            if (value == null || value != i) {
+                bad++;
+            }
+        }
+        StdOut.printf("%-22s %10d %10d %12.1f %10d\n", label, st.recoveredFromSnapshot(), st.recoveredFromLog(),
+            st.recoveryNanos() / 1e6, bad);
+        st.close();
+    }
+
+    // Deletes the snapshot and log in the given directory, if any.
+    private static void clear(String directory) {
+        Path dir = Paths.get(directory);
+        try {
+            for (String name : new String[] {"wal", "snapshot", "snapshot.tmp"}) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not clear " + directory, e);
+        }
+    }
+}
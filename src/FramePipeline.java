@@ -0,0 +1,104 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+// Builds the index each frame of a BoidFlock's simulation queries, mapping the boids' positions
+// to their ids, in one of two modes:
+//    Exact:     the index is built on the calling thread over the boids' current positions, so
+//               the frame's queries see the boids where they are.
+//    Pipelined: the index is built on a background thread one frame ahead. The index handed out
+//               for frame t was built, while frame t - 1's queries and physics ran, from a
+//               snapshot of the positions taken at the start of frame t - 1. The queries of a
+//               frame therefore find the neighbors the boids had one frame earlier, while the
+//               physics still reads their current positions through the ids the index maps to.
+// Two indexes are kept and handed out in turn, so that the one being built is never the one being
+// queried, and both kinds are cleared and refilled in place rather than allocated anew.
+public class FramePipeline {
+    // Declares the instance variables
+    private final BoidFlock flock;
+    private final String mode;                          // "brute" or "kdtree"
+    private final boolean pipelined;                    // is the next index built in the background?
+    private final IntFunction<Integer> ids;             // the value of each boid, its id
+    private final double[][] snapshots;                 // the positions each index is built from
+    private final PointST<?>[] indexes;                 // the two indexes
+    private int front;                                  // the slot of the index handed out next
+    private ForkJoinTask<PointST<Integer>> pending;     // the index being built, or null
+
+    // Constructs a pipeline building indexes of the given mode ("brute" or "kdtree") over the
+    // boids of the given flock, in the background if pipelined is true.
+    public FramePipeline(BoidFlock flock, String mode, boolean pipelined) {
+        if (flock == null) {
+            throw new NullPointerException("flock is null");
+        }
+        if (mode == null) {
+            throw new NullPointerException("mode is null");
+        }
+        if (!mode.equals("brute") && !mode.equals("kdtree")) {
+            throw new IllegalArgumentException("mode must be \"brute\" or \"kdtree\"");
+        }
+        this.flock = flock;
+        this.mode = mode;
+        this.pipelined = pipelined;
+        this.ids = flock::id;
+        this.snapshots = new double[2][2 * flock.size()];
+        this.indexes = new PointST<?>[2];
+    }
+
+    // Returns true if the indexes are built in the background, one frame ahead.
+    public boolean isPipelined() {
+        return this.pipelined;
+    }
+
+    // Returns the index the frame about to run should query, waiting for it if it is still being
+    // built. The index stays valid until the next call.
+    public PointST<Integer> next() {
+        if (!this.pipelined) {
+            return build(0, this.flock.positions());
+        }
+
+        // The first frame has nothing built ahead for it, so its index is built on this thread
+        PointST<Integer> st;
+        if (this.pending == null) {
+            st = build(this.front, snapshot(this.front));
+        } else {
+            st = this.pending.join();
+        }
+
+        // Snapshots the positions now, before the frame moves the boids, and builds the next
+        // frame's index from them in the other slot while this frame runs
+        int back = 1 - this.front;
+        double[] positions = snapshot(back);
+        this.pending = ForkJoinPool.commonPool().submit(() -> build(back, positions));
+        this.front = back;
+        return st;
+    }
+
+    // Copies the boids' current positions into the given slot's snapshot, and returns it.
+    private double[] snapshot(int slot) {
+        System.arraycopy(this.flock.positions(), 0, this.snapshots[slot], 0, this.snapshots[slot].length);
+        return this.snapshots[slot];
+    }
+
+    // Builds the index in the given slot over the given positions {x0, y0, x1, y1, ...}, and
+    // returns it.
+    @SuppressWarnings("unchecked")
+    private PointST<Integer> build(int slot, double[] positions) {
+        if (this.mode.equals("brute")) {
+            BrutePointST<Integer> st = (BrutePointST<Integer>) this.indexes[slot];
+            if (st == null) {
+                st = new BrutePointST<Integer>();
+                this.indexes[slot] = st;
+            } else {
+                st.clear();
+            }
+            for (int i = 0; i < positions.length / 2; i++) {
+                st.put(positions[2 * i], positions[2 * i + 1], this.ids.apply(i));
+            }
+        } else if (this.indexes[slot] == null) {
+            this.indexes[slot] = KdTreePointST.build(positions, this.ids);
+        } else {
+            ((KdTreePointST<Integer>) this.indexes[slot]).rebuild(positions, this.ids);
+        }
+        return (PointST<Integer>) this.indexes[slot];
+    }
+}
@@ -0,0 +1,11 @@
+// The arithmetic of dividing a rectangle into a grid of equal cells, shared by PointST.countGrid()
+// and the tables that override it.
+
+class GridCells {
+    // Returns the index of the cell v falls in when [min, max] is divided into the given number of
+    // equal cells, max falling in the last one.
+    static int cell(double v, double min, double max, int cells) {
+        int cell = (int) ((v - min) / (max - min) * cells);
+        return cell < 0 ? 0 : cell >= cells ? cells - 1 : cell;
+    }
+}
@@ -0,0 +1,377 @@
+import java.util.Arrays;
+
+import dsa.LinkedQueue;
+import dsa.Point2D;
+import dsa.RectHV;
+import stdlib.StdIn;
+import stdlib.StdOut;
+
+// A symbol table that buckets points into a uniform grid of cols x rows cells over a given box,
+// which suits dense points spread evenly over the box: put() and get() scan one cell, range()
+// scans the cells the rectangle overlaps, and nearest() scans rings of cells outwards from the
+// query point until no unscanned cell can hold anything closer. Each cell is a chain of point
+// indices threaded through an int array, with the coordinates and values in parallel arrays.
+//
+// Points outside the box are kept in the cells on its edge, so any point can be stored, but the
+// more points there are outside the box or the more unevenly they are spread, the more points
+// each search scans.
+public class GridPointST<Value> implements PointST<Value> {
+    // The largest number of cells
+    public static final int MAX_CELLS = 1 << 26;
+
+    // The number of points allocated up front
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Declares the instance variables
+    private final double xmin, ymin;          // the lower left corner of the box
+    private final double width, height;       // the sides of a cell
+    private final int cols, rows;             // the number of cells along each axis
+    private final int[] head;                 // the first point in each cell, or -1
+    private int[] next;                       // the next point in the cell of point i, or -1
+    private double[] xs, ys;                  // the coordinates of point i
+    private Object[] values;                  // the value of point i
+    private int n;
+
+    // Constructs an empty symbol table over a grid of cols x rows cells covering the box
+    // [xmin, xmax] x [ymin, ymax].
+    public GridPointST(double xmin, double ymin, double xmax, double ymax, int cols, int rows) {
+        if (!(xmin < xmax) || !(ymin < ymax) || Double.isInfinite(xmax - xmin) || Double.isInfinite(ymax - ymin)) {
+            throw new IllegalArgumentException("invalid bounding box");
+        }
+        if (cols < 1 || rows < 1 || (long) cols * rows > MAX_CELLS) {
+            throw new IllegalArgumentException("cols and rows must be positive, with at most " + MAX_CELLS + " cells");
+        }
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.cols = cols;
+        this.rows = rows;
+        this.width = (xmax - xmin) / cols;
+        this.height = (ymax - ymin) / rows;
+        this.head = new int[cols * rows];
+        Arrays.fill(this.head, -1);
+        this.next = new int[INITIAL_CAPACITY];
+        this.xs = new double[INITIAL_CAPACITY];
+        this.ys = new double[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+    }
+
+    // Returns the number of cells.
+    public int cells() {
+        return this.head.length;
+    }
+
+    // Returns true if this symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return this.n == 0;
+    }
+
+    // Returns the number of key-value pairs in this symbol table.
+    public int size() {
+        return this.n;
+    }
+
+    // Inserts the given point and value into this symbol table.
+    public void put(Point2D p, Value value) {
+        // If the point to be inserted is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        put(p.x(), p.y(), value);
+    }
+
+    // Inserts the point (x, y) and the given value into this symbol table.
+    public void put(double x, double y, Value value) {
+        // If the value to be inserted is null or the point is not one, throws the appropriate error
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        checkPoint(x, y);
+
+        // Replaces the value if the point is already in its cell, and adds the point to the front
+        // of the cell's chain otherwise
+        int cell = row(y) * this.cols + column(x);
+        int i = find(cell, x, y);
+        if (i != -1) {
+            this.values[i] = value;
+            return;
+        }
+        if (this.n == this.xs.length) {
+            int capacity = 2 * this.n;
+            this.next = Arrays.copyOf(this.next, capacity);
+            this.xs = Arrays.copyOf(this.xs, capacity);
+            this.ys = Arrays.copyOf(this.ys, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        i = this.n++;
+        this.xs[i] = x;
+        this.ys[i] = y;
+        this.values[i] = value;
+        this.next[i] = this.head[cell];
+        this.head[cell] = i;
+    }
+
+    // Returns the value associated with the given point in this symbol table, or null.
+    public Value get(Point2D p) {
+        // If the point to be retrieved is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return get(p.x(), p.y());
+    }
+
+    // Returns the value associated with the point (x, y) in this symbol table, or null.
+    public Value get(double x, double y) {
+        checkPoint(x, y);
+        int i = find(row(y) * this.cols + column(x), x, y);
+        return i == -1 ? null : value(i);
+    }
+
+    // Returns true if this symbol table contains the given point, and false otherwise.
+    public boolean contains(Point2D p) {
+        // If the point to be checked for is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return contains(p.x(), p.y());
+    }
+
+    // Returns true if this symbol table contains the point (x, y), and false otherwise.
+    public boolean contains(double x, double y) {
+        checkPoint(x, y);
+        return find(row(y) * this.cols + column(x), x, y) != -1;
+    }
+
+    // Returns all the points in this symbol table.
+    public Iterable<Point2D> points() {
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        for (int i = 0; i < this.n; i++) {
+            q.enqueue(new Point2D(this.xs[i], this.ys[i]));
+        }
+        return q;
+    }
+
+    // Returns all the points in this symbol table that are inside the given rectangle.
+    public Iterable<Point2D> range(RectHV rect) {
+        // If the given rectangle is null, throws the appropriate error
+        if (rect == null) {
+            throw new NullPointerException("rect is null");
+        }
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        range(rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(), q, null);
+        return q;
+    }
+
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        // If the given sink is null, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        range(xmin, ymin, xmax, ymax, null, sink);
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the given point,
+    // or null.
+    public Point2D nearest(Point2D p) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return nearest(p.x(), p.y());
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (x, y), or null.
+    public Point2D nearest(double x, double y) {
+        checkPoint(x, y);
+        BoundedMaxHeap heap = nearest(x, y, 1);
+        return heap.size() == 0 ? null : point(heap.handle(0));
+    }
+
+    // Returns up to k points from this symbol table that are different from and closest to the
+    // given point.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        BoundedMaxHeap heap = nearest(p.x(), p.y(), k);
+        heap.sort();
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        for (int i = 0; i < heap.size(); i++) {
+            q.enqueue(point(heap.handle(i)));
+        }
+        return q;
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (x, y).
+    public void nearest(double x, double y, int k, PointSink<Value> sink) {
+        // If the given sink is null or the point is not one, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        checkPoint(x, y);
+        BoundedMaxHeap heap = nearest(x, y, k);
+        heap.sort();
+        for (int t = 0; t < heap.size(); t++) {
+            int i = heap.handle(t);
+            sink.accept(this.xs[i], this.ys[i], value(i));
+        }
+    }
+
+    // Throws an IllegalArgumentException if (x, y) is not a point, as Point2D's constructor does for
+    // a NaN coordinate, which would otherwise never equal itself and so never be found again.
+    private static void checkPoint(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            throw new IllegalArgumentException("(" + x + ", " + y + ") is not a point");
+        }
+    }
+
+    // Returns the column of the cell holding the x-coordinate x, the first or last one if x lies
+    // before or after the box.
+    private int column(double x) {
+        double offset = (x - this.xmin) / this.width;
+        return offset >= this.cols ? this.cols - 1 : offset > 0 ? (int) offset : 0;
+    }
+
+    // Returns the row of the cell holding the y-coordinate y, the first or last one if y lies
+    // below or above the box.
+    private int row(double y) {
+        double offset = (y - this.ymin) / this.height;
+        return offset >= this.rows ? this.rows - 1 : offset > 0 ? (int) offset : 0;
+    }
+
+    // Returns the point (x, y) in the given cell, or -1.
+    private int find(int cell, double x, double y) {
+        for (int i = this.head[cell]; i != -1; i = this.next[i]) {
+            if (this.xs[i] == x && this.ys[i] == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Collects the points inside [xmin, xmax] x [ymin, ymax], in q if it is not null, and reports
+    // them to sink otherwise.
+    private void range(double xmin, double ymin, double xmax, double ymax, LinkedQueue<Point2D> q, PointSink<Value> sink) {
+        if (this.n == 0 || xmin > xmax || ymin > ymax) {
+            return;
+        }
+        int cmin = column(xmin), cmax = column(xmax);
+        int rmin = row(ymin), rmax = row(ymax);
+        for (int r = rmin; r <= rmax; r++) {
+            for (int c = cmin; c <= cmax; c++) {
+                for (int i = this.head[r * this.cols + c]; i != -1; i = this.next[i]) {
+                    double x = this.xs[i], y = this.ys[i];
+                    if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) {
+                        if (q != null) {
+                            q.enqueue(new Point2D(x, y));
+                        } else {
+                            sink.accept(x, y, value(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns a heap holding up to k points that are different from and closest to the point
+    // (x, y), keyed by squared distance. The cells are scanned in square rings around the query
+    // point's cell, and the search stops once the ring scanned last leaves no unscanned cell closer
+    // than the k-th closest point found. The edge cells, which hold the points outside the box,
+    // are taken to extend to infinity.
+    private BoundedMaxHeap nearest(double x, double y, int k) {
+        BoundedMaxHeap heap = new BoundedMaxHeap(Math.min(k, this.n));
+        if (this.n == 0 || k == 0) {
+            return heap;
+        }
+        int cx = column(x), cy = row(y);
+        for (int ring = 0; ; ring++) {
+            int cmin = cx - ring, cmax = cx + ring, rmin = cy - ring, rmax = cy + ring;
+            for (int r = Math.max(rmin, 0); r <= Math.min(rmax, this.rows - 1); r++) {
+                if (r == rmin || r == rmax) {
+                    for (int c = Math.max(cmin, 0); c <= Math.min(cmax, this.cols - 1); c++) {
+                        scan(r * this.cols + c, x, y, heap);
+                    }
+                } else {
+                    if (cmin >= 0) {
+                        scan(r * this.cols + cmin, x, y, heap);
+                    }
+                    if (cmax < this.cols) {
+                        scan(r * this.cols + cmax, x, y, heap);
+                    }
+                }
+            }
+            if (cmin <= 0 && rmin <= 0 && cmax >= this.cols - 1 && rmax >= this.rows - 1) {
+                return heap;
+            }
+
+            // The distance from the query point to the nearest cell outside the rings scanned
+            double left = cmin <= 0 ? Double.POSITIVE_INFINITY : x - (this.xmin + cmin * this.width);
+            double right = cmax >= this.cols - 1 ? Double.POSITIVE_INFINITY : this.xmin + (cmax + 1) * this.width - x;
+            double bottom = rmin <= 0 ? Double.POSITIVE_INFINITY : y - (this.ymin + rmin * this.height);
+            double top = rmax >= this.rows - 1 ? Double.POSITIVE_INFINITY : this.ymin + (rmax + 1) * this.height - y;
+            double gap = Math.max(0.0, Math.min(Math.min(left, right), Math.min(bottom, top)));
+            if (gap * gap >= heap.bound()) {
+                return heap;
+            }
+        }
+    }
+
+    // Offers to heap the points in the given cell, other than the point (x, y).
+    private void scan(int cell, double x, double y, BoundedMaxHeap heap) {
+        for (int i = this.head[cell]; i != -1; i = this.next[i]) {
+            double dx = this.xs[i] - x, dy = this.ys[i] - y;
+            if (dx != 0.0 || dy != 0.0) {
+                heap.offer(i, dx * dx + dy * dy);
+            }
+        }
+    }
+
+    // Returns point i as a Point2D.
+    private Point2D point(int i) {
+        return new Point2D(this.xs[i], this.ys[i]);
+    }
+
+    // Returns the value of point i.
+    @SuppressWarnings("unchecked")
+    private Value value(int i) {
+        return (Value) this.values[i];
+    }
+
+    // Unit tests the data type. The grid is 16 x 16 cells over the unit square unless the box and
+    // the cells along each axis are given after k.
+    public static void main(String[] args) {
+        double qx = Double.parseDouble(args[0]);
+        double qy = Double.parseDouble(args[1]);
+        int k = Integer.parseInt(args[2]);
+        GridPointST<Integer> st = args.length < 9 ? new GridPointST<Integer>(0, 0, 1, 1, 16, 16)
+            : new GridPointST<Integer>(Double.parseDouble(args[3]), Double.parseDouble(args[4]),
+                                       Double.parseDouble(args[5]), Double.parseDouble(args[6]),
+                                       Integer.parseInt(args[7]), Integer.parseInt(args[8]));
+        Point2D query = new Point2D(qx, qy);
+        RectHV rect = new RectHV(-1, -1, 1, 1);
+        int i = 0;
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            Point2D p = new Point2D(x, y);
+            st.put(p, i++);
+        }
+        StdOut.println("st.cells() = " + st.cells());
+        StdOut.println("st.empty()? " + st.isEmpty());
+        StdOut.println("st.size() = " + st.size());
+        StdOut.printf("st.contains(%s)? %s\n", query, st.contains(query));
+        StdOut.printf("st.range(%s):\n", rect);
+        for (Point2D p : st.range(rect)) {
+            StdOut.println("  " + p);
+        }
+        StdOut.printf("st.nearest(%s) = %s\n", query, st.nearest(query));
+        StdOut.printf("st.nearest(%s, %d):\n", query, k);
+        for (Point2D p : st.nearest(query, k)) {
+            StdOut.println("  " + p);
+        }
+    }
+}
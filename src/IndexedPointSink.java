@@ -0,0 +1,6 @@
+// Receives the points, along with their values, reported by a batched search of a PointST, tagged
+// with the index of the query (in the batch) that found them.
+public interface IndexedPointSink<Value> {
+    // Accepts the point (x, y) and its value, found by query number index.
+    public void accept(int index, double x, double y, Value value);
+}
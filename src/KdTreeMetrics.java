@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+// Opt-in instrumentation of the searches of a KdTreePointST. For every get() (and contains()),
+// range() and nearest() call, it counts the nodes visited, the subtrees pruned because their
+// rectangle misses the search rectangle or is too far from the query point, the point distances
+// evaluated, and the deepest level reached, and it keeps a histogram of each count per kind of
+// search, along with the shape of the tree.
+//
+// Instrumentation is enabled by running with -Dkdtree.metrics=true. Since ENABLED is a static
+// final field, the JIT compiler removes the counting code altogether when it is disabled. When it
+// is enabled, searches of one tree must not run on several threads at once.
+public class KdTreeMetrics {
+    // Is instrumentation enabled?
+    public static final boolean ENABLED = Boolean.getBoolean("kdtree.metrics");
+
+    // Kinds of searches
+    public static final int GET = 0;
+    public static final int RANGE = 1;
+    public static final int NEAREST = 2;
+
+    // Counts kept per search
+    public static final int VISITED = 0;
+    public static final int PRUNED_BY_RECT = 1;
+    public static final int PRUNED_BY_DISTANCE = 2;
+    public static final int DISTANCES = 3;
+    public static final int DEPTH = 4;
+
+    private static final String[] SEARCHES = {"get", "range", "nearest"};
+    private static final String[] COUNTS = {"nodes visited", "pruned by rect", "pruned by distance", "distances",
+        "max depth"};
+
+    // Declares the instance variables
+    private final KdTreePointST<?> st;       // the instrumented tree
+    private final long[] counts;             // the counts of the search in progress
+    private int depth;                       // the level of the search in progress, the root's being 0
+    private final Histogram[][] histograms;  // the histograms, by kind of search and count
+
+    // Constructs the metrics of the given tree.
+    KdTreeMetrics(KdTreePointST<?> st) {
+        this.st = st;
+        this.counts = new long[COUNTS.length];
+        this.histograms = new Histogram[SEARCHES.length][COUNTS.length];
+        reset();
+    }
+
+    // Returns the histogram of the given count (VISITED, ..., DEPTH) over the searches of the given
+    // kind (GET, RANGE or NEAREST).
+    public Histogram histogram(int search, int count) {
+        return this.histograms[search][count];
+    }
+
+    // Returns the number of searches of the given kind recorded.
+    public long searches(int search) {
+        return this.histograms[search][VISITED].count();
+    }
+
+    // Returns the height of the tree.
+    public int height() {
+        return this.st.height();
+    }
+
+    // Returns the balance factor of the tree: its height divided by the least height a tree of its
+    // size can have, which is 1 for a perfectly balanced tree and about n / lg n for a chain.
+    public double balanceFactor() {
+        int n = this.st.size();
+        if (n == 0) {
+            return 1.0;
+        }
+        int least = 32 - Integer.numberOfLeadingZeros(n);
+        return (double) this.st.height() / least;
+    }
+
+    // Discards the histograms recorded so far.
+    public void reset() {
+        for (int i = 0; i < SEARCHES.length; i++) {
+            for (int j = 0; j < COUNTS.length; j++) {
+                this.histograms[i][j] = new Histogram();
+            }
+        }
+    }
+
+    // Returns a report of the tree's shape and of the histograms recorded so far.
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("size = %d, height = %d, balance factor = %.2f\n", this.st.size(), height(),
+            balanceFactor()));
+        for (int i = 0; i < SEARCHES.length; i++) {
+            s.append(String.format("%s: %d searches\n", SEARCHES[i], searches(i)));
+            for (int j = 0; j < COUNTS.length; j++) {
+                s.append(String.format("  %-20s %s\n", COUNTS[j], this.histograms[i][j]));
+            }
+        }
+        return s.toString();
+    }
+
+    // Starts counting a search.
+    void begin() {
+        Arrays.fill(this.counts, 0);
+        this.depth = 0;
+    }
+
+    // Counts a visit to a node at the current level.
+    void visit() {
+        this.counts[VISITED]++;
+        this.counts[DEPTH] = Math.max(this.counts[DEPTH], this.depth);
+    }
+
+    // Moves the search one level down.
+    void descend() {
+        this.depth++;
+    }
+
+    // Moves the search one level up.
+    void ascend() {
+        this.depth--;
+    }
+
+    // Counts a subtree pruned because its rectangle misses the search rectangle.
+    void prunedByRect() {
+        this.counts[PRUNED_BY_RECT]++;
+    }
+
+    // Counts a subtree pruned because its rectangle is too far from the query point.
+    void prunedByDistance() {
+        this.counts[PRUNED_BY_DISTANCE]++;
+    }
+
+    // Counts a point distance evaluated.
+    void distance() {
+        this.counts[DISTANCES]++;
+    }
+
+    // Records the counts of the search in progress, which is of the given kind.
+    void end(int search) {
+        for (int j = 0; j < COUNTS.length; j++) {
+            this.histograms[search][j].record(this.counts[j]);
+        }
+    }
+
+    // A histogram of non-negative counts, in buckets of powers of two.
+    public static class Histogram {
+        private final long[] buckets;  // buckets[i] counts the values v with 2^(i-1) <= v < 2^i
+        private long count;            // the number of values
+        private long sum;              // the sum of the values
+        private long max;              // the largest value
+
+        // Constructs an empty histogram.
+        Histogram() {
+            this.buckets = new long[65];
+        }
+
+        // Records the given value.
+        void record(long value) {
+            this.buckets[64 - Long.numberOfLeadingZeros(value)]++;
+            this.count++;
+            this.sum += value;
+            this.max = Math.max(this.max, value);
+        }
+
+        // Returns the number of values recorded.
+        public long count() {
+            return this.count;
+        }
+
+        // Returns the mean of the values recorded, or 0 if there are none.
+        public double mean() {
+            return this.count == 0 ? 0.0 : (double) this.sum / this.count;
+        }
+
+        // Returns the largest value recorded, or 0 if there are none.
+        public long max() {
+            return this.max;
+        }
+
+        // Returns an upper bound on the q-th quantile of the values recorded (0 <= q <= 1): the upper
+        // end of the bucket holding it, or the largest value if that is smaller.
+        public long quantile(double q) {
+            if (q < 0 || q > 1) {
+                throw new IllegalArgumentException("q must be in [0, 1]");
+            }
+            long rank = (long) Math.ceil(q * this.count);
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : Math.min(this.max, (1L << i) - 1);
+                }
+            }
+            return this.max;
+        }
+
+        // Returns the mean, median, 99th percentile and maximum as a string.
+        public String toString() {
+            return String.format("mean %.1f, p50 <= %d, p99 <= %d, max %d", mean(), quantile(0.5), quantile(0.99),
+                this.max);
+        }
+    }
+}
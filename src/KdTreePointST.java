@@ -1,3 +1,15 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 import dsa.LinkedQueue;
 import dsa.MaxPQ;
 import dsa.Point2D;
@@ -7,9 +19,37 @@ import stdlib.StdOut;
 
 public class KdTreePointST<Value> implements PointST<Value> {
 
+    // Subtrees with more points than this are built in parallel by build()
+    private static final int PARALLEL_BUILD_THRESHOLD = 1 << 13;
+
+    // The number of top levels of the tree over which a parallel rangeBatch() forks
+    private static final int PARALLEL_BATCH_LEVELS = 6;
+
+    // The number of top levels of the tree over which a parallel join() or selfJoin() forks
+    private static final int PARALLEL_JOIN_LEVELS = 4;
+
+    // The most searches a parallel nearestBatch() runs on one thread
+    private static final int PARALLEL_NEAREST_BATCH = 1 << 6;
+
+    // The largest k whose heap a thread keeps for its next k-nearest-neighbor search
+    private static final int CACHED_HEAP_K = 1 << 10;
+
+    // Each thread's heap for the k-nearest-neighbor searches that report to a sink, held in a
+    // one-element array that is emptied while a search uses it
+    private static final ThreadLocal<BoundedMaxHeap[]> HEAPS = ThreadLocal.withInitial(() -> new BoundedMaxHeap[1]);
+
     // Declares the instance variables
     Node root;
     int n;
+    int modCount;  // the number of changes to the set of points, checked by range cursors
+
+    // The storage kept between rebuilds: the nodes, the one made i-th in slot i, and the scratch
+    // arrays build() uses to drop repeated points
+    @SuppressWarnings("unchecked")
+    private Node[] arena = (Node[]) new KdTreePointST<?>.Node[0];
+    private int[] index = new int[0];
+    private int[] table = new int[0];
+    private KdTreeMetrics metrics;  // made by the first call to metrics(), and counted only if KdTreeMetrics.ENABLED
 
     // Constructs an empty symbol table.
     public KdTreePointST() {
@@ -18,6 +58,55 @@ public class KdTreePointST<Value> implements PointST<Value> {
         this.n = 0;
     }
 
+    // Returns a symbol table holding the points {x0, y0, x1, y1, ...} given in coords, where
+    // values.apply(i) is the value of point i. The tree is built top-down by splitting on medians,
+    // so it is balanced whatever the input order, and large subtrees are built in parallel (values
+    // must therefore be safe to call from several threads). As with repeated calls to put(), a
+    // point that occurs more than once keeps the value of its last occurrence.
+    public static <Value> KdTreePointST<Value> build(double[] coords, IntFunction<Value> values) {
+        KdTreePointST<Value> st = new KdTreePointST<Value>();
+        st.rebuild(coords, values);
+        return st;
+    }
+
+    // Replaces the contents of this symbol table with the points {x0, y0, x1, y1, ...} given in
+    // coords, where values.apply(i) is the value of point i, building the tree as build() does. The
+    // nodes of the previous contents are refilled rather than reallocated, so rebuilding a table
+    // every frame over about as many points allocates next to nothing. The table must not be
+    // searched while it is being rebuilt.
+    public void rebuild(double[] coords, IntFunction<Value> values) {
+        // If the coordinates or values are null, or the coordinates do not pair up, throws the appropriate error
+        if (coords == null) {
+            throw new NullPointerException("coords is null");
+        }
+        if (values == null) {
+            throw new NullPointerException("values is null");
+        }
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("coords has an odd length");
+        }
+
+        // Keeps only the last occurrence of every point, and makes room for a node per point
+        clear();
+        int m = distinct(coords);
+        if (this.arena.length < m) {
+            this.arena = Arrays.copyOf(this.arena, m);
+        }
+
+        // Builds the tree under the infinite rectangle, just like put() does for the root node
+        this.root = ForkJoinPool.commonPool().invoke(new BuildTask(coords, this.index, values, 0, m,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, true));
+        this.n = m;
+    }
+
+    // Removes all the points from this symbol table in constant time. Its nodes are kept, to be
+    // refilled by later calls to put() and rebuild(); they hold on to their old values until then.
+    public void clear() {
+        this.root = null;
+        this.n = 0;
+        this.modCount++;
+    }
+
     // Returns true if this symbol table is empty, and false otherwise.
     public boolean isEmpty() {
         return this.n == 0;
@@ -28,6 +117,22 @@ public class KdTreePointST<Value> implements PointST<Value> {
         return this.n;
     }
 
+    // Returns the instrumentation of this symbol table's searches, which records nothing unless
+    // KdTreeMetrics.ENABLED is true. It is made by the first call, so that trees that are never
+    // instrumented do not carry its histograms.
+    public KdTreeMetrics metrics() {
+        if (this.metrics == null) {
+            this.metrics = new KdTreeMetrics(this);
+        }
+        return this.metrics;
+    }
+
+    // Returns the height of the tree (the number of nodes on its longest root-to-leaf path), which
+    // is about lg n for balanced trees and up to n for trees built by put() from sorted points.
+    public int height() {
+        return height(root);
+    }
+
     // Inserts the given point and value into this symbol table.
     public void put(Point2D p, Value value) {
         // If the point or value to be inserted is null, throws the appropriate error
@@ -38,20 +143,20 @@ public class KdTreePointST<Value> implements PointST<Value> {
             throw new NullPointerException("value is null");
         }
 
-        // If this is the first item added to the symbol table...
-        if (this.root == null) {
-
-            // Sets the size to one
-            n = 1;
-
-            // Creates the infinite rectangle for the root node
-            RectHV rect = new RectHV(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        // Calls the private put method with the point's coordinates, keeping p for points()
+        put(p.x(), p.y(), p, value);
+    }
 
-            // Sets components of the root node to the correct items
-            this.root = new Node(p, value, rect);
-        } else { // Otherwise, calls the private put method with the correct arguments
-            this.root = put(this.root, p, value, this.root.rect, true);
+    // Inserts the point (x, y) and the given value into this symbol table.
+    public void put(double x, double y, Value value) {
+        // If the value to be inserted is null or the point is not one, throws the appropriate error
+        if (value == null) {
+            throw new NullPointerException("value is null");
         }
+        checkPoint(x, y);
+
+        // Calls the private put method without a Point2D; one is made only if the point is asked for
+        put(x, y, null, value);
     }
 
     // Returns the value associated with the given point in this symbol table, or null.
@@ -61,8 +166,17 @@ public class KdTreePointST<Value> implements PointST<Value> {
             throw new NullPointerException("p is null");
         }
 
+        // Calls the primitive get method with the point's coordinates
+        return get(p.x(), p.y());
+    }
+
+    // Returns the value associated with the point (x, y) in this symbol table, or null.
+    public Value get(double x, double y) {
+        checkPoint(x, y);
+
         // Calls the private get method with the correct arguments
-        return get(this.root, p, true);
+        Node node = get(this.root, x, y, true);
+        return node == null ? null : node.value;
     }
 
     // Returns true if this symbol table contains the given point, and false otherwise.
@@ -76,6 +190,12 @@ public class KdTreePointST<Value> implements PointST<Value> {
         return this.get(p) != null;
     }
 
+    // Returns true if this symbol table contains the point (x, y), and false otherwise.
+    public boolean contains(double x, double y) {
+        checkPoint(x, y);
+        return get(this.root, x, y, true) != null;
+    }
+
     // Returns all the points in this symbol table.
     public Iterable<Point2D> points() {
         // Creates a queue to store the points in the symbol table called collection
@@ -84,8 +204,10 @@ public class KdTreePointST<Value> implements PointST<Value> {
         // Creates a queue to store the nodes that are being traveled on called traversal
         LinkedQueue<Node> traversal = new LinkedQueue<Node>();
 
-        // Enqueues the root to traversal
-        traversal.enqueue(root);
+        // Enqueues the root, if there is one, to traversal
+        if (root != null) {
+            traversal.enqueue(root);
+        }
 
         // While traversal is not empty...
         while (!traversal.isEmpty()) {
@@ -94,7 +216,7 @@ public class KdTreePointST<Value> implements PointST<Value> {
             Node currentNode = traversal.dequeue();
 
             // Enqueues the point from the current node to collection
-            collection.enqueue(currentNode.p);
+            collection.enqueue(currentNode.point());
 
             // So long as they are not null, enqueues the left and right children of the current node to traversal
             if (currentNode.lb != null) {
@@ -109,6 +231,25 @@ public class KdTreePointST<Value> implements PointST<Value> {
         return collection;
     }
 
+    // Returns a stream of all the points in this symbol table. The points are produced lazily by a
+    // depth-first walk that holds O(depth) nodes, and the stream splits by subtree, with exact
+    // sizes, when made parallel.
+    public Stream<Point2D> stream() {
+        return StreamSupport.stream(new PointSpliterator(root, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, true), false);
+    }
+
+    // Returns a stream of all the points in this symbol table that are inside the given rectangle,
+    // produced lazily like stream() does and skipping subtrees that lie outside it.
+    public Stream<Point2D> rangeStream(RectHV rect) {
+        // If the given rectangle is null, throws the appropriate error
+        if (rect == null) {
+            throw new NullPointerException("rect is null");
+        }
+        return StreamSupport.stream(new PointSpliterator(root, rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(),
+            false), false);
+    }
+
     // Returns all the points in this symbol table that are inside the given rectangle.
     public Iterable<Point2D> range(RectHV rect) {
         // If the given rectangle is null, throws the appropriate error
@@ -119,13 +260,61 @@ public class KdTreePointST<Value> implements PointST<Value> {
         // Creates a new linked queue, q
         LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
 
-        // Calls the private range method with the correct arguments to fill q
-        range(root, rect, q);
+        // Calls the private range method with the rectangle's bounds to fill q
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
+        range(root, rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(), q, null);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.RANGE);
+        }
 
         // Returns q
         return q;
     }
 
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        // If the given sink is null, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+
+        // Calls the private range method with the correct arguments
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
+        range(root, xmin, ymin, xmax, ymax, null, sink);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.RANGE);
+        }
+    }
+
+    // Returns the number of points in this symbol table that are inside the rectangle
+    // [xmin, xmax] x [ymin, ymax]. Subtrees whose rectangle lies inside it are counted by their
+    // size without being visited.
+    public int count(double xmin, double ymin, double xmax, double ymax) {
+        return count(root, xmin, ymin, xmax, ymax);
+    }
+
+    // Divides the rectangle [xmin, xmax] x [ymin, ymax] into a grid of cols x rows equal cells, and
+    // adds to counts[row * cols + col] the number of points in this symbol table inside each cell.
+    // Subtrees whose rectangle lies inside a single cell are counted by their size without being
+    // visited, so a coarse grid over many points costs about as much as the number of cells.
+    public void countGrid(double xmin, double ymin, double xmax, double ymax, int cols, int rows, int[] counts) {
+        // If the counts are null, or the grid does not fit in them, throws the appropriate error
+        if (counts == null) {
+            throw new NullPointerException("counts is null");
+        }
+        if (cols < 1 || rows < 1 || counts.length < (long) cols * rows) {
+            throw new IllegalArgumentException("invalid grid dimensions");
+        }
+
+        // Calls the private countGrid method with the correct arguments
+        countGrid(root, xmin, ymin, xmax, ymax, cols, rows, counts);
+    }
+
     // Returns the point in this symbol table that is different from and closest to the given point,
     // or null.
     public Point2D nearest(Point2D p) {
@@ -134,293 +323,1334 @@ public class KdTreePointST<Value> implements PointST<Value> {
             throw new NullPointerException("p is null");
         }
 
+        // Calls the primitive nearest method with the point's coordinates
+        return nearest(p.x(), p.y());
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (x, y), or null.
+    public Point2D nearest(double x, double y) {
+        checkPoint(x, y);
+
         // Calls the private nearest method with the correct arguments
-        return nearest(root, p, null, true);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
+        Node nearest = nearest(root, x, y, (Node) null, true);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.NEAREST);
+        }
+        return nearest == null ? null : nearest.point();
     }
 
     // Returns up to k points from this symbol table that are different from and closest to the
     // given point.
     public Iterable<Point2D> nearest(Point2D p, int k) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+
+        // Calls the private nearest method with the correct arguments to fill heap
+        BoundedMaxHeap heap = new BoundedMaxHeap(Math.min(k, n));
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
+        nearest(root, p.x(), p.y(), heap, true);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.NEAREST);
+        }
 
         // Creates a maximum priority queue that compares based on the distance to the target point called pq
         MaxPQ<Point2D> pq = new MaxPQ<Point2D>(p.distanceToOrder());
 
-        // Calls the private nearest method with the correct arguments to fill pq
-        nearest(root, p, k, pq, true);
+        // Moves the points found into pq
+        for (int i = 0; i < heap.size(); i++) {
+            pq.insert(arena[heap.handle(i)].point());
+        }
 
         // Returns pq
         return pq;
     }
 
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (x, y).
+    public void nearest(double x, double y, int k, PointSink<Value> sink) {
+        // If the given sink is null, k is negative, or the point is not one, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k is negative");
+        }
+        checkPoint(x, y);
+
+        // Takes this thread's heap, bounded by min(k, n) rather than k so that a huge k costs no more
+        // than the table's size
+        int m = Math.min(k, n);
+        BoundedMaxHeap heap = takeHeap(m);
+
+        // Calls the private nearest method with the correct arguments to fill heap
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
+        nearest(root, x, y, heap, true);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.NEAREST);
+        }
+
+        // Reports the nodes found, closest first
+        heap.sort();
+        try {
+            for (int i = 0; i < heap.size(); i++) {
+                Node node = arena[heap.handle(i)];
+                sink.accept(node.x, node.y, node.value);
+            }
+        } finally {
+            returnHeap(heap, m);
+        }
+    }
+
+    // Reports to sink, tagged with i and closest first, up to k points (and their values) from this
+    // symbol table that are different from and closest to the point (queries[2i], queries[2i + 1]),
+    // for each i. The searches run back to back on one heap, which is all they share: the tree is
+    // too large for one search to leave much of it cached for the next.
+    public void nearestBatch(double[] queries, int k, IndexedPointSink<Value> sink) {
+        nearestBatch(queries, k, sink, false);
+    }
+
+    // Reports to sink, tagged with i and closest first, up to k points (and their values) from this
+    // symbol table that are different from and closest to the point (queries[2i], queries[2i + 1]),
+    // for each i. If parallel is true, the queries are split across threads; sink must then be
+    // safe to call from several threads, and the order in which queries are reported is
+    // unspecified. While KdTreeMetrics is enabled the queries always run on the calling thread, one
+    // recorded search each, since the metrics cannot be shared between threads.
+    public void nearestBatch(double[] queries, int k, IndexedPointSink<Value> sink, boolean parallel) {
+        // If the queries or sink are null, the queries do not pair up, or k is negative, throws the appropriate error
+        if (queries == null) {
+            throw new NullPointerException("queries is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (queries.length % 2 != 0) {
+            throw new IllegalArgumentException("queries must hold pairs of coordinates");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k is negative");
+        }
+
+        // Calls the private nearestBatch method, or the parallel task, with the correct arguments
+        int m = queries.length / 2;
+        if (parallel && !KdTreeMetrics.ENABLED && m > PARALLEL_NEAREST_BATCH) {
+            ForkJoinPool.commonPool().invoke(new NearestBatchTask(queries, k, sink, 0, m));
+        } else {
+            nearestBatch(queries, k, sink, 0, m, new BoundedMaxHeap(Math.min(k, n)));
+        }
+    }
+
+    // Reports to sink, tagged with i, all the points (and their values) in this symbol table that
+    // are inside rects[i], for each i. The tree is descended once for the whole batch, carrying
+    // the rectangles that still intersect each node, so that nodes shared by rectangles are visited
+    // once rather than once per rectangle. A rectangle found to contain a node's rectangle is carried
+    // down apart from the rest and never tested again, so each node is tested only against the few
+    // rectangles whose edges pass through it.
+    public void rangeBatch(RectHV[] rects, IndexedPointSink<Value> sink) {
+        rangeBatch(rects, sink, false);
+    }
+
+    // Reports to sink, tagged with i, all the points (and their values) in this symbol table that
+    // are inside rects[i], for each i. If parallel is true, the top levels of the tree are split
+    // across threads, if there is more than one; sink must then be safe to call from several
+    // threads, and the order in which points are reported is unspecified.
+    public void rangeBatch(RectHV[] rects, IndexedPointSink<Value> sink, boolean parallel) {
+        // If the rectangles or sink are null, throws the appropriate error
+        if (rects == null) {
+            throw new NullPointerException("rects is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+
+        // Flattens the rectangles into bounds {xmin0, ymin0, xmax0, ymax0, xmin1, ...}, all active
+        double[] bounds = new double[4 * rects.length];
+        int[] active = new int[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            if (rects[i] == null) {
+                throw new NullPointerException("rects[" + i + "] is null");
+            }
+            bounds[4 * i] = rects[i].xMin();
+            bounds[4 * i + 1] = rects[i].yMin();
+            bounds[4 * i + 2] = rects[i].xMax();
+            bounds[4 * i + 3] = rects[i].yMax();
+            active[i] = i;
+        }
+
+        // Calls the private rangeBatch method, or the parallel task, with the correct arguments
+        if (parallel && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ForkJoinPool.commonPool().invoke(new BatchTask(root, bounds, active, active.length, sink, 0));
+        } else {
+            rangeBatch(root, bounds, active, active.length, sink, new BatchLevels(rects.length), 0);
+        }
+    }
+
+    // Reports to sink every pair of a point from this symbol table and a point from other that are
+    // at most d apart. The two trees are descended together, and pairs of subtrees whose
+    // rectangles are more than d apart are skipped. If other is this symbol table, this is
+    // selfJoin(d, sink).
+    public <Other> void join(KdTreePointST<Other> other, double d, PairSink<Value, Other> sink) {
+        join(other, d, sink, false);
+    }
+
+    // Reports to sink every pair of a point from this symbol table and a point from other that are
+    // at most d apart. If parallel is true, pairs of subtrees near the top of the trees are joined
+    // on separate threads; sink must then be safe to call from several threads, and the order in
+    // which pairs are reported is unspecified.
+    @SuppressWarnings("unchecked")
+    public <Other> void join(KdTreePointST<Other> other, double d, PairSink<Value, Other> sink, boolean parallel) {
+        // If the other symbol table or the sink is null, or the distance is invalid, throws the appropriate error
+        if (other == null) {
+            throw new NullPointerException("other is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (!(d >= 0)) {
+            throw new IllegalArgumentException("d must be non-negative");
+        }
+
+        // A symbol table joined with itself has the same value type on both sides
+        if (other == this) {
+            selfJoin(d, (PairSink<Value, Value>) (PairSink<?, ?>) sink, parallel);
+            return;
+        }
+
+        // Calls the private join method, or the parallel task, with the correct arguments
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new JoinTask<Other>(root, other.root, d * d, sink, 0));
+        } else {
+            join(root, other.root, d * d, sink);
+        }
+    }
+
+    // Reports to sink, once each and in no particular orientation, every pair of distinct points
+    // from this symbol table that are at most d apart.
+    public void selfJoin(double d, PairSink<Value, Value> sink) {
+        selfJoin(d, sink, false);
+    }
+
+    // Reports to sink, once each and in no particular orientation, every pair of distinct points
+    // from this symbol table that are at most d apart. If parallel is true, subtrees near the top of
+    // the tree are joined on separate threads; sink must then be safe to call from several threads.
+    public void selfJoin(double d, PairSink<Value, Value> sink, boolean parallel) {
+        // If the sink is null, or the distance is invalid, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (!(d >= 0)) {
+            throw new IllegalArgumentException("d must be non-negative");
+        }
+
+        // Calls the private selfJoin method, or the parallel task, with the correct arguments
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new SelfJoinTask(root, d * d, sink, 0));
+        } else {
+            selfJoin(root, d * d, sink);
+        }
+    }
+
+    // Returns a range cursor over this symbol table, initially on an empty rectangle.
+    public RangeCursor rangeCursor() {
+        return new RangeCursor();
+    }
+
     // Note: In the helper methods that have lr as a parameter, its value specifies how to
-    // compare the point p with the point x.p. If true, the points are compared by their
+    // compare the point (px, py) with the point (x.x, x.y). If true, the points are compared by their
     // x-coordinates; otherwise, the points are compared by their y-coordinates. If the
     // comparison of the coordinates (x or y) is true, the recursive call is made on x.lb;
     // otherwise, the call is made on x.rt.
 
-    // Inserts the given point and value into the KdTree x having rect as its axis-aligned
-    // rectangle, and returns a reference to the modified tree.
-    private Node put(Node x, Point2D p, Value value, RectHV rect, boolean lr) {
+    // Inserts the point (px, py), whose Point2D (if there is one already) is p, and the given value
+    // into the symbol table.
+    private void put(double px, double py, Point2D p, Value value) {
+        // If this is the first item added to the symbol table...
+        if (this.root == null) {
+
+            // Sets the size to one
+            n = 1;
+            modCount++;
+
+            // Creates the root node under the infinite rectangle
+            this.root = node(0, px, py, p, value, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        } else { // Otherwise, calls the private put method with the correct arguments
+            this.root = put(this.root, px, py, p, value, this.root.xmin, this.root.ymin, this.root.xmax, this.root.ymax, true);
+        }
+    }
+
+    // Inserts the point (px, py) and value into the KdTree x having [xmin, xmax] x [ymin, ymax] as
+    // its axis-aligned rectangle, and returns a reference to the modified tree.
+    private Node put(Node x, double px, double py, Point2D p, Value value, double xmin, double ymin,
+                     double xmax, double ymax, boolean lr) {
 
         // If the current node is null, increments the number of key-value pairs and returns a new node with the appropriate values
         if (x == null) {
-            n++;
-            return new Node(p, value, rect);
+            modCount++;
+            return node(n++, px, py, p, value, xmin, ymin, xmax, ymax);
         }
 
         // If the point in x is the same as the point to be added, changes the value corresponding to that point to the new value
-        if (x.p.equals(p)) {
+        if (x.x == px && x.y == py) {
             x.value = value;
         } else { // Otherwise...
 
             // If we should be comparing based on the x values...
             if (lr) {
 
-                // ... and the x value of the point in the current node is less than the x value of the point to be added...
-                if (p.x() < x.p.x()) {
+                // ... and the x value of the point to be added is less than the x value of the point in the current node...
+                if (px < x.x) {
+
+                    // Calls put recursively on the left child of the current node, with the left part of its rectangle
+                    x.lb = put(x.lb, px, py, p, value, x.xmin, x.ymin, x.x, x.ymax, false);
+                } else { // ... and the x value of the point to be added is greater than or equal to the x value of the point in the current node...
 
-                    // Creates a new rectangle of the appropriate size
-                    RectHV newRect = new RectHV(x.rect.xMin(), x.rect.yMin(), x.p.x(), x.rect.yMax());
+                    // Calls put recursively on the right child of the current node, with the right part of its rectangle
+                    x.rt = put(x.rt, px, py, p, value, x.x, x.ymin, x.xmax, x.ymax, false);
+                }
+            } else { // If we should be comparing based on the y values...
 
-                    // Calls put recursively on the left child of the current node
-                    x.lb = put(x.lb, p, value, newRect, false);
-                } else { // ... and the x value of the point in the current node is greater than or equal to the x value of the point to be added...
+                // ... and the y value of the point to be added is less than the y value of the point in the current node...
+                if (py < x.y) {
 
-                    // Creates a new rectangle of the appropriate size
-                    RectHV newRect = new RectHV(x.p.x(), x.rect.yMin(), x.rect.xMax(), x.rect.yMax());
+                    // Calls put recursively on the left child of the current node, with the bottom part of its rectangle
+                    x.lb = put(x.lb, px, py, p, value, x.xmin, x.ymin, x.xmax, x.y, true);
+                } else { // ... and the y value of the point to be added is greater than or equal to the y value of the point in the current node...
 
-                    // Calls put recursively on the right child of the current node
-                    x.rt = put(x.rt, p, value, newRect, false);
+                    // Calls put recursively on the right child of the current node, with the top part of its rectangle
+                    x.rt = put(x.rt, px, py, p, value, x.xmin, x.y, x.xmax, x.ymax, true);
                 }
-            } else { // If we should be comparing based on the y values...
+            }
+        }
+
+        // Updates the size of the current node's subtree and returns the current node
+        x.size = 1 + size(x.lb) + size(x.rt);
+        return x;
+    }
 
-                // ... and the y value of the point in the current node is less than the y value of the point to be added...
-                if (p.y() < x.p.y()) {
+    // Returns the height of the KdTree x.
+    private int height(Node x) {
+        return x == null ? 0 : 1 + Math.max(height(x.lb), height(x.rt));
+    }
 
-                    // Creates a new rectangle of the appropriate size
-                    RectHV newRect = new RectHV(x.rect.xMin(), x.rect.yMin(), x.rect.xMax(), x.p.y());
+    // Returns the number of points in the KdTree x.
+    private static int size(KdTreePointST<?>.Node x) {
+        return x == null ? 0 : x.size;
+    }
 
-                    // Calls put recursively on the left child of the current node
-                    x.lb = put(x.lb, p, value, newRect, true);
-                } else { // ... and the y value of the point in the current node is greater than or equal to the y value of the point to be added...
+    // Returns the node holding the point (px, py) in the KdTree x, or null.
+    private Node get(Node x, double px, double py, boolean lr) {
+        if (KdTreeMetrics.ENABLED) {
+            metrics().begin();
+        }
 
-                    // Creates a new rectangle of the appropriate size
-                    RectHV newRect = new RectHV(x.rect.xMin(), x.p.y(), x.rect.xMax(), x.rect.yMax());
+        // Walks down the tree until the node we are looking at does not exist
+        while (x != null) {
+            if (KdTreeMetrics.ENABLED) {
+                metrics().visit();
+            }
 
-                    // Calls put recursively on the right child of the current node
-                    x.rt = put(x.rt, p, value, newRect, true);
-                }
+            // If we have found the point we are looking for, stops there
+            if (x.x == px && x.y == py) {
+                break;
             }
-        }
 
-        // Returns the current node
+            // Moves to the left child if the compared coordinate of the target point is smaller, and to the right child otherwise
+            if (lr ? px < x.x : py < x.y) {
+                x = x.lb;
+            } else {
+                x = x.rt;
+            }
+            lr = !lr;
+            if (KdTreeMetrics.ENABLED) {
+                metrics().descend();
+            }
+        }
+        if (KdTreeMetrics.ENABLED) {
+            metrics().end(KdTreeMetrics.GET);
+        }
         return x;
     }
 
-    // Returns the value associated with the given point in the KdTree x, or null.
-    private Value get(Node x, Point2D p, boolean lr) {
+    // Collects all the points in the KdTree x that are inside [xmin, xmax] x [ymin, ymax], in q if it
+    // is not null, and reports them to sink otherwise.
+    private void range(Node x, double xmin, double ymin, double xmax, double ymax, LinkedQueue<Point2D> q,
+                       PointSink<Value> sink) {
 
-        // If the node we are looking at does not exist, returns null
+        // If the node we are looking at does not exist, returns
         if (x == null) {
-            return null;
+            return;
+        }
+        if (KdTreeMetrics.ENABLED) {
+            metrics().visit();
         }
 
-        // If we have found the point we are looking for, returns the associated value
-        if (x.p.equals(p)) {
-            return x.value;
+        // If the rectangle belonging to the current node intersects with the given rectangle...
+        if (x.xmax >= xmin && x.xmin <= xmax && x.ymax >= ymin && x.ymin <= ymax) {
+
+            // If the point in the current node is contained in the rectangle, collects it
+            if (x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax) {
+                if (q != null) {
+                    q.enqueue(x.point());
+                } else {
+                    sink.accept(x.x, x.y, x.value);
+                }
+            }
+
+            // Recursively calls range on the left and right children of the current node
+            if (KdTreeMetrics.ENABLED) {
+                metrics().descend();
+            }
+            range(x.lb, xmin, ymin, xmax, ymax, q, sink);
+            range(x.rt, xmin, ymin, xmax, ymax, q, sink);
+            if (KdTreeMetrics.ENABLED) {
+                metrics().ascend();
+            }
+        } else if (KdTreeMetrics.ENABLED) {
+            metrics().prunedByRect();
         }
+    }
 
-        // If we should be comparing based on the x values...
-        if (lr) {
+    // Reports to sink all the points in the KdTree x that are inside the rectangles active[0, count)
+    // of bounds, which are the ones that intersect the rectangle of x's parent. The rectangles that
+    // intersect x's own rectangle are passed on to its children in levels.get(depth), which is
+    // reused across siblings.
+    private void rangeBatch(Node x, double[] bounds, int[] active, int count, IndexedPointSink<Value> sink,
+                            BatchLevels levels, int depth) {
+        // If the node we are looking at does not exist, returns
+        if (x == null) {
+            return;
+        }
 
-            // ... and the x value of the point in the current node is less than the x value of the point to be found...
-            if (p.x() < x.p.x()) {
+        // Keeps the rectangles that intersect the current node's, and reports its point to those
+        // that contain it
+        int[] kept = levels.get(depth);
+        int m = filter(x, bounds, active, count, kept, sink);
 
-                // Calls get recursively on the left child of the current node
-                return get(x.lb, p, false);
-            } else { // ... and the x value of the point in the current node is greater than or equal to the x value of the point to be found...
+        // Recursively calls rangeBatch on the left and right children of the current node
+        if (m > 0) {
+            rangeBatch(x.lb, bounds, kept, m, sink, levels, depth + 1);
+            rangeBatch(x.rt, bounds, kept, m, sink, levels, depth + 1);
+        }
+    }
 
-                // Calls get recursively on the right child of the current node
-                return get(x.rt, p, false);
+    // Copies into kept those of the rectangles active[0, count) of bounds that intersect x's
+    // rectangle, reports x's point to sink for each of them that contains it, and returns how many
+    // were kept. A rectangle i is kept as ~i once it contains x's rectangle, and so every rectangle
+    // below; such entries are passed on and report their points without being tested again.
+    private int filter(Node x, double[] bounds, int[] active, int count, int[] kept, IndexedPointSink<Value> sink) {
+        int m = 0;
+        for (int t = 0; t < count; t++) {
+            int i = active[t];
+            if (i < 0) {
+                kept[m++] = i;
+                sink.accept(~i, x.x, x.y, x.value);
+                continue;
+            }
+            double xmin = bounds[4 * i], ymin = bounds[4 * i + 1];
+            double xmax = bounds[4 * i + 2], ymax = bounds[4 * i + 3];
+            if (x.xmax >= xmin && x.xmin <= xmax && x.ymax >= ymin && x.ymin <= ymax) {
+                if (x.xmin >= xmin && x.xmax <= xmax && x.ymin >= ymin && x.ymax <= ymax) {
+                    kept[m++] = ~i;
+                    sink.accept(i, x.x, x.y, x.value);
+                } else {
+                    kept[m++] = i;
+                    if (x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax) {
+                        sink.accept(i, x.x, x.y, x.value);
+                    }
+                }
             }
-        } else { // If we should be comparing based on the y values...
+        }
+        return m;
+    }
 
-            // ... and the y value of the point in the current node is less than the y value of the point to be found...
-            if (p.y() < x.p.y()) {
+    // Reports to sink every pair of a point in the KdTree x and a point in the KdTree y (from
+    // another tree) whose squared distance is at most d2.
+    private <Other> void join(Node x, KdTreePointST<Other>.Node y, double d2, PairSink<Value, Other> sink) {
+        // If either node does not exist, or their rectangles are too far apart, returns
+        if (x == null || y == null || x.distanceSquaredTo(y) > d2) {
+            return;
+        }
 
-                // Calls get recursively on the left child of the current node
-                return get(x.lb, p, true);
-            } else { // ... and the y value of the point in the current node is greater than or equal to the y value of the point to be found...
+        // Pairs the two points, each point with the other's subtrees, and the subtrees with each other
+        if (distanceSquared(x.x, x.y, y.x, y.y) <= d2) {
+            sink.accept(x.x, x.y, x.value, y.x, y.y, y.value);
+        }
+        joinPoint(x.x, x.y, x.value, y.lb, d2, sink);
+        joinPoint(x.x, x.y, x.value, y.rt, d2, sink);
+        joinTree(x.lb, y.x, y.y, y.value, d2, sink);
+        joinTree(x.rt, y.x, y.y, y.value, d2, sink);
+        join(x.lb, y.lb, d2, sink);
+        join(x.lb, y.rt, d2, sink);
+        join(x.rt, y.lb, d2, sink);
+        join(x.rt, y.rt, d2, sink);
+    }
 
-                // Calls get recursively on the right child of the current node
-                return get(x.rt, p, true);
-            }
+    // Reports to sink every pair of the point (px, py) from this tree, whose value is pv, and a
+    // point in the KdTree y whose squared distance to it is at most d2.
+    private <Other> void joinPoint(double px, double py, Value pv, KdTreePointST<Other>.Node y, double d2,
+                                   PairSink<Value, Other> sink) {
+        if (y == null || y.distanceSquaredTo(px, py) > d2) {
+            return;
+        }
+        if (distanceSquared(px, py, y.x, y.y) <= d2) {
+            sink.accept(px, py, pv, y.x, y.y, y.value);
         }
+        joinPoint(px, py, pv, y.lb, d2, sink);
+        joinPoint(px, py, pv, y.rt, d2, sink);
     }
 
-    // Collects in the given queue all the points in the KdTree x that are inside rect.
-    private void range(Node x, RectHV rect, LinkedQueue<Point2D> q) {
+    // Reports to sink every pair of a point in the KdTree x and the point (qx, qy) from the other
+    // tree, whose value is qv, whose squared distance is at most d2.
+    private <Other> void joinTree(Node x, double qx, double qy, Other qv, double d2, PairSink<Value, Other> sink) {
+        if (x == null || x.distanceSquaredTo(qx, qy) > d2) {
+            return;
+        }
+        if (distanceSquared(x.x, x.y, qx, qy) <= d2) {
+            sink.accept(x.x, x.y, x.value, qx, qy, qv);
+        }
+        joinTree(x.lb, qx, qy, qv, d2, sink);
+        joinTree(x.rt, qx, qy, qv, d2, sink);
+    }
 
-        // If the node we are looking at does not exist, returns null
+    // Reports to sink, once each, every pair of distinct points in the KdTree x whose squared
+    // distance is at most d2.
+    private void selfJoin(Node x, double d2, PairSink<Value, Value> sink) {
+        // If the node we are looking at does not exist, returns
         if (x == null) {
             return;
         }
 
-        // If the rectangle belonging to the current node intersects with the given rectangle...
-        if (x.rect.intersects(rect)) {
+        // Pairs the point with both subtrees, then pairs within and across the subtrees
+        joinPoint(x.x, x.y, x.value, x.lb, d2, sink);
+        joinPoint(x.x, x.y, x.value, x.rt, d2, sink);
+        selfJoin(x.lb, d2, sink);
+        selfJoin(x.rt, d2, sink);
+        join(x.lb, x.rt, d2, sink);
+    }
+
+    // Returns the number of points in the KdTree x that are inside [xmin, xmax] x [ymin, ymax].
+    private int count(Node x, double xmin, double ymin, double xmax, double ymax) {
+        // If the node does not exist, or its rectangle misses the given one, there are none
+        if (x == null || x.xmax < xmin || x.xmin > xmax || x.ymax < ymin || x.ymin > ymax) {
+            return 0;
+        }
+
+        // If the node's rectangle lies inside the given one, all of its points are
+        if (x.xmin >= xmin && x.xmax <= xmax && x.ymin >= ymin && x.ymax <= ymax) {
+            return x.size;
+        }
+
+        // Otherwise, counts the point in the current node and those in its children
+        int count = x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax ? 1 : 0;
+        return count + count(x.lb, xmin, ymin, xmax, ymax) + count(x.rt, xmin, ymin, xmax, ymax);
+    }
+
+    // Adds to counts the number of points in the KdTree x inside each cell of the cols x rows grid
+    // over [xmin, xmax] x [ymin, ymax].
+    private void countGrid(Node x, double xmin, double ymin, double xmax, double ymax, int cols, int rows,
+                           int[] counts) {
+        // If the node does not exist, or its rectangle misses the grid, returns
+        if (x == null || x.xmax < xmin || x.xmin > xmax || x.ymax < ymin || x.ymin > ymax) {
+            return;
+        }
 
-            // If the point in the current node is contained in the rectangle, adds it to the queue
-            if (rect.contains(x.p)) {
-                q.enqueue(x.p);
+        // If the node's rectangle lies inside a single cell, counts all of its points there
+        if (x.xmin >= xmin && x.xmax <= xmax && x.ymin >= ymin && x.ymax <= ymax) {
+            int col = GridCells.cell(x.xmin, xmin, xmax, cols), row = GridCells.cell(x.ymin, ymin, ymax, rows);
+            if (col == GridCells.cell(x.xmax, xmin, xmax, cols) && row == GridCells.cell(x.ymax, ymin, ymax, rows)) {
+                counts[row * cols + col] += x.size;
+                return;
             }
+        }
 
-            // Recursively calls range on the left and right children of the current node
-            range(x.lb, rect, q);
-            range(x.rt, rect, q);
+        // Otherwise, counts the point in the current node and those in its children
+        if (x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax) {
+            counts[GridCells.cell(x.y, ymin, ymax, rows) * cols + GridCells.cell(x.x, xmin, xmax, cols)]++;
         }
+        countGrid(x.lb, xmin, ymin, xmax, ymax, cols, rows, counts);
+        countGrid(x.rt, xmin, ymin, xmax, ymax, cols, rows, counts);
     }
 
-    // Returns the point in the KdTree x that is closest to p, or null; nearest is the closest
-    // point discovered so far.
-    private Point2D nearest(Node x, Point2D p, Point2D nearest, boolean lr) {
+    // Returns the node in the KdTree x whose point is closest to (px, py), or null; nearest is the
+    // closest node discovered so far.
+    private Node nearest(Node x, double px, double py, Node nearest, boolean lr) {
 
         // If the node we are looking at does not exist, returns nearest
         if (x == null) {
             return nearest;
         }
-
-        // Declares the variable to store the distance to the target point from the nearest point encountered so far
-        double distanceNearest;
-
-        // If the nearest is null, sets the distance to positive infinity, otherwise calculates using the distance squared method
-        if (nearest == null) {
-            distanceNearest = Double.POSITIVE_INFINITY;
-        } else {
-            distanceNearest = nearest.distanceSquaredTo(p);
+        if (KdTreeMetrics.ENABLED) {
+            metrics().visit();
         }
 
+        // If the nearest is null, sets the distance to positive infinity, otherwise calculates the squared distance
+        double distanceNearest = nearest == null ? Double.POSITIVE_INFINITY : distanceSquared(nearest.x, nearest.y, px, py);
+
         // If the distance between the point and the nearest found so far is greater than the distance to the rectangle of the current node...
-        if (distanceNearest >= x.rect.distanceSquaredTo(p)) {
+        if (distanceNearest >= x.distanceSquaredTo(px, py)) {
 
             // If the point in the current node is not the same as the target point, and it's distance to the target point is less than the nearest distance found so far...
-            if (!x.p.equals(p) && distanceNearest > x.p.distanceSquaredTo(p)) {
-                // Sets nearest to the point in the current node
-                nearest = x.p;
+            if (KdTreeMetrics.ENABLED) {
+                metrics().distance();
+            }
+            if ((x.x != px || x.y != py) && distanceNearest > distanceSquared(x.x, x.y, px, py)) {
+                // Sets nearest to the current node
+                nearest = x;
             }
 
-            // If we should be comparing based on the x values...
-            if (lr) {
+            // If the compared coordinate of the target point is less than that of the point in the current node...
+            if (KdTreeMetrics.ENABLED) {
+                metrics().descend();
+            }
+            if (lr ? px < x.x : py < x.y) {
+
+                // Calls the nearest method recursively on the left child and then the right child of the current node
+                nearest = nearest(x.lb, px, py, nearest, !lr);
+                nearest = nearest(x.rt, px, py, nearest, !lr);
+            } else { // ... and if it is greater than or equal to it...
 
-                // ... and the x value of the point in the current node is less than the x value of the target point...
-                if (p.x() < x.p.x()) {
+                // Calls the nearest method recursively on the right child and then the left child of the current node
+                nearest = nearest(x.rt, px, py, nearest, !lr);
+                nearest = nearest(x.lb, px, py, nearest, !lr);
+            }
+            if (KdTreeMetrics.ENABLED) {
+                metrics().ascend();
+            }
+        } else if (KdTreeMetrics.ENABLED) {
+            metrics().prunedByDistance();
+        }
+        return nearest;
+    }
 
-                    // Calls the nearest method recursively on the left child and then the right child of the current node
-                    nearest = nearest(x.lb, p, nearest, false);
-                    nearest = nearest(x.rt, p, nearest, false);
-                } else { // ... and the x value of the point in the current node is greater than or equal to the x value of the target point...
+    // Collects in the given heap up to k nodes from the KdTree x whose points are different from and
+    // closest to (px, py).
+    private void nearest(Node x, double px, double py, BoundedMaxHeap heap, boolean lr) {
 
-                    // Calls the nearest method recursively on the right child and then the left child of the current node
-                    nearest = nearest(x.rt, p, nearest, false);
-                    nearest = nearest(x.lb, p, nearest, false);
-                }
-            } else { // If we should be comparing based on the y values...
+        // If the node we are looking at does not exist, or its rectangle is no closer than the k-th closest point found so far, returns
+        if (x == null) {
+            return;
+        }
+        if (KdTreeMetrics.ENABLED) {
+            metrics().visit();
+        }
+        if (x.distanceSquaredTo(px, py) >= heap.bound()) {
+            if (KdTreeMetrics.ENABLED) {
+                metrics().prunedByDistance();
+            }
+            return;
+        }
+
+        // If the point in the current node is not the same as the target point, offers it to heap
+        if (x.x != px || x.y != py) {
+            if (KdTreeMetrics.ENABLED) {
+                metrics().distance();
+            }
+            heap.offer(x.slot, distanceSquared(x.x, x.y, px, py));
+        }
 
-                // ... and the y value of the point in the current node is less than the y value of the target point...
-                if (p.y() < x.p.y()) {
+        // If the compared coordinate of the target point is less than that of the point in the current node...
+        if (KdTreeMetrics.ENABLED) {
+            metrics().descend();
+        }
+        if (lr ? px < x.x : py < x.y) {
 
-                    // Calls the nearest method recursively on the left child and then the right child of the current node
-                    nearest = nearest(x.lb, p, nearest, true);
-                    nearest = nearest(x.rt, p, nearest, true);
-                } else { // ... and the y value of the point in the current node is greater than or equal to the y value of the target point...
+            // Calls the nearest method recursively on the left child and then the right child of the current node
+            nearest(x.lb, px, py, heap, !lr);
+            nearest(x.rt, px, py, heap, !lr);
+        } else { // ... and if it is greater than or equal to it...
 
-                    // Calls the nearest method recursively on the right child and then the left child of the current node
-                    nearest = nearest(x.rt, p, nearest, true);
-                    nearest = nearest(x.lb, p, nearest, true);
-                }
+            // Calls the nearest method recursively on the right child and then the left child of the current node
+            nearest(x.rt, px, py, heap, !lr);
+            nearest(x.lb, px, py, heap, !lr);
+        }
+        if (KdTreeMetrics.ENABLED) {
+            metrics().ascend();
+        }
+    }
+
+    // Reports to sink, tagged with i and closest first, the up to k nodes from the KdTree whose
+    // points are different from and closest to (queries[2i], queries[2i + 1]), for each i in
+    // [lo, hi), collecting each query's nodes in heap.
+    private void nearestBatch(double[] queries, int k, IndexedPointSink<Value> sink, int lo, int hi,
+                              BoundedMaxHeap heap) {
+        for (int i = lo; i < hi; i++) {
+            heap.reset(Math.min(k, n));
+            if (KdTreeMetrics.ENABLED) {
+                metrics().begin();
+            }
+            nearest(root, queries[2 * i], queries[2 * i + 1], heap, true);
+            if (KdTreeMetrics.ENABLED) {
+                metrics().end(KdTreeMetrics.NEAREST);
+            }
+            heap.sort();
+            for (int j = 0; j < heap.size(); j++) {
+                Node node = arena[heap.handle(j)];
+                sink.accept(i, node.x, node.y, node.value);
             }
         }
-        return nearest;
     }
 
-    // Collects in the given max-PQ up to k points from the KdTree x that are different from and
-    // closest to p.
-    private void nearest(Node x, Point2D p, int k, MaxPQ<Point2D> pq, boolean lr) {
+    // Throws an IllegalArgumentException if (x, y) is not a point, as Point2D's constructor does for
+    // a NaN coordinate, which would otherwise never equal itself and so never be found again.
+    private static void checkPoint(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            throw new IllegalArgumentException("(" + x + ", " + y + ") is not a point");
+        }
+    }
 
-        // If the node we are looking at does not exist or pq is too big, returns null
-        if (x == null || pq.size() > k) {
-            return;
+    // Returns an empty heap bounded by m: this thread's, unless a search made from a sink holds it
+    // or m is too large for the heap to be kept, in which case a new one.
+    private static BoundedMaxHeap takeHeap(int m) {
+        BoundedMaxHeap[] held = HEAPS.get();
+        BoundedMaxHeap heap = held[0];
+        if (heap == null || m > CACHED_HEAP_K) {
+            return new BoundedMaxHeap(m);
+        }
+        held[0] = null;
+        heap.reset(m);
+        return heap;
+    }
+
+    // Gives the given heap, taken with the bound m, back to this thread, unless the thread already
+    // holds one or m is too large for the heap to be kept.
+    private static void returnHeap(BoundedMaxHeap heap, int m) {
+        BoundedMaxHeap[] held = HEAPS.get();
+        if (held[0] == null && m <= CACHED_HEAP_K) {
+            held[0] = heap;
         }
+    }
+
+    // Returns the squared distance between the points (ax, ay) and (bx, by).
+    private static double distanceSquared(double ax, double ay, double bx, double by) {
+        double dx = ax - bx, dy = ay - by;
+        return dx * dx + dy * dy;
+    }
 
-        // Calculates the distance between the max value on pq and the target point (setting it to infinity if pq is empty)
-        double distance;
-        if (pq.isEmpty()) {
-            distance = Double.POSITIVE_INFINITY;
+    // Builds and returns the KdTree for the points index[lo, hi) of coords, having
+    // [xmin, xmax] x [ymin, ymax] as its axis-aligned rectangle. The median point along the lr axis
+    // becomes the root, with the strictly smaller points to its left/bottom and the rest to its
+    // right/top, which is exactly where put() and get() expect to find them.
+    private Node build(double[] coords, int[] index, IntFunction<Value> values, int lo, int hi,
+                       double xmin, double ymin, double xmax, double ymax, boolean lr) {
+        if (lo == hi) {
+            return null;
+        }
+        int mid = select(coords, index, lr ? 0 : 1, lo, hi - 1, lo + (hi - lo) / 2);
+        Node x = node(mid, coords, index[mid], values, xmin, ymin, xmax, ymax);
+        if (lr) {
+            x.lb = build(coords, index, values, lo, mid, xmin, ymin, x.x, ymax, false);
+            x.rt = build(coords, index, values, mid + 1, hi, x.x, ymin, xmax, ymax, false);
         } else {
-            distance = pq.max().distanceSquaredTo(p);
+            x.lb = build(coords, index, values, lo, mid, xmin, ymin, xmax, x.y, true);
+            x.rt = build(coords, index, values, mid + 1, hi, xmin, x.y, xmax, ymax, true);
+        }
+        x.size = hi - lo;
+        return x;
+    }
+
+    // Returns the node in the given slot of the arena, filled with point i of coords and having
+    // [xmin, xmax] x [ymin, ymax] as its axis-aligned rectangle. A tree built from index[lo, hi)
+    // puts the node for index[mid] in slot mid, so the slots of concurrently built subtrees never
+    // overlap.
+    private Node node(int slot, double[] coords, int i, IntFunction<Value> values, double xmin, double ymin,
+                      double xmax, double ymax) {
+        Value value = values.apply(i);
+        if (value == null) {
+            throw new NullPointerException("value is null");
         }
+        return node(slot, coords[2 * i], coords[2 * i + 1], null, value, xmin, ymin, xmax, ymax);
+    }
 
-        // If the distance between the rectangle of the current node and the target point is less than the distance between the max value in pq and the target point...
-        if (x.rect.distanceSquaredTo(p) < distance) {
+    // Returns the node in the given slot of the arena, growing the arena if it has no such slot,
+    // filled with the point (px, py), its Point2D (or null), the given value, and the bounds of its
+    // axis-aligned rectangle.
+    private Node node(int slot, double px, double py, Point2D p, Value value, double xmin, double ymin,
+                      double xmax, double ymax) {
+        if (slot == this.arena.length) {
+            this.arena = Arrays.copyOf(this.arena, Math.max(16, 2 * slot));
+        }
+        Node x = this.arena[slot];
+        if (x == null) {
+            x = new Node();
+            x.slot = slot;
+            this.arena[slot] = x;
+        }
+        x.set(px, py, p, value, xmin, ymin, xmax, ymax);
+        return x;
+    }
 
-            // If the point in the current node is not the same as the target point, inserts it to pq
-            if (!x.p.equals(p)) {
-                pq.insert(x.p);
+    // Rearranges index[lo, hi] so that the points whose axis coordinate (0 for x, 1 for y) equals
+    // that of the k-th smallest come right after all the strictly smaller ones and before all the
+    // larger ones, and returns the position of the first of them.
+    private static int select(double[] coords, int[] index, int axis, int lo, int hi, int k) {
+        while (true) {
+            double pivot = coords[2 * index[lo + (hi - lo) / 2] + axis];
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                double c = coords[2 * index[i] + axis];
+                if (c < pivot) {
+                    swap(index, lt++, i++);
+                } else if (c > pivot) {
+                    swap(index, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return lt;
             }
+        }
+    }
 
-            // If pq is too big, deletes the maximum value
-            if (pq.size() > k) {
-                pq.delMax();
+    // Fills index with the indices of the distinct points in coords, keeping the last occurrence of
+    // each, and returns their number. The points are walked from the last one back, and each is
+    // looked up in an open-addressing hash table of the indices kept so far, so only points with
+    // equal hashes are ever compared with each other. Both arrays are kept for the next rebuild.
+    private int distinct(double[] coords) {
+        int n = coords.length / 2;
+        if (this.index.length < n) {
+            this.index = new int[n];
+            this.table = new int[Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1];
+        }
+        int[] table = this.table;
+        int mask = table.length - 1;
+        Arrays.fill(table, -1);
+        int m = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            double x = coords[2 * i], y = coords[2 * i + 1];
+            for (int h = hash(x, y) & mask; ; h = (h + 1) & mask) {
+                int j = table[h];
+                if (j < 0) {
+                    table[h] = i;
+                    this.index[m++] = i;
+                    break;
+                }
+                if (coords[2 * j] == x && coords[2 * j + 1] == y) {
+                    break;
+                }
             }
+        }
+        return m;
+    }
 
-            // If we should be comparing based on the x values...
+    // Returns a hash of the point (x, y) that agrees for points that Point2D considers equal.
+    private static int hash(double x, double y) {
+        long h = Double.doubleToLongBits(x + 0.0) * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(y + 0.0);
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ h >>> 32);
+    }
+
+    // Swaps a[i] and a[j].
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    // Builds the KdTree for the points index[lo, hi) of coords like build() does, forking off the
+    // left/bottom subtree while large subtrees remain.
+    private class BuildTask extends RecursiveTask<Node> {
+        private final double[] coords;
+        private final int[] index;
+        private final IntFunction<Value> values;
+        private final int lo, hi;
+        private final double xmin, ymin, xmax, ymax;
+        private final boolean lr;
+
+        // Constructs a task that builds the KdTree for the points index[lo, hi) of coords.
+        BuildTask(double[] coords, int[] index, IntFunction<Value> values, int lo, int hi,
+                  double xmin, double ymin, double xmax, double ymax, boolean lr) {
+            this.coords = coords;
+            this.index = index;
+            this.values = values;
+            this.lo = lo;
+            this.hi = hi;
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+            this.lr = lr;
+        }
+
+        // Returns the root of the built KdTree.
+        protected Node compute() {
+            if (hi - lo <= PARALLEL_BUILD_THRESHOLD) {
+                return build(coords, index, values, lo, hi, xmin, ymin, xmax, ymax, lr);
+            }
+            int mid = select(coords, index, lr ? 0 : 1, lo, hi - 1, lo + (hi - lo) / 2);
+            Node x = node(mid, coords, index[mid], values, xmin, ymin, xmax, ymax);
+            BuildTask left, right;
             if (lr) {
+                left = new BuildTask(coords, index, values, lo, mid, xmin, ymin, x.x, ymax, false);
+                right = new BuildTask(coords, index, values, mid + 1, hi, x.x, ymin, xmax, ymax, false);
+            } else {
+                left = new BuildTask(coords, index, values, lo, mid, xmin, ymin, xmax, x.y, true);
+                right = new BuildTask(coords, index, values, mid + 1, hi, xmin, x.y, xmax, ymax, true);
+            }
+            left.fork();
+            x.rt = right.compute();
+            x.lb = left.join();
+            x.size = hi - lo;
+            return x;
+        }
+    }
+
+    // A task that runs rangeBatch() over a KdTree, forking for the two children of each node in
+    // the top PARALLEL_BATCH_LEVELS levels and descending sequentially below them.
+    private class BatchTask extends RecursiveAction {
+        private final Node x;
+        private final double[] bounds;
+        private final int[] active;
+        private final int count;
+        private final IndexedPointSink<Value> sink;
+        private final int depth;
+
+        // Constructs a task that reports the points in the KdTree x that are inside the rectangles
+        // active[0, count) of bounds.
+        BatchTask(Node x, double[] bounds, int[] active, int count, IndexedPointSink<Value> sink, int depth) {
+            this.x = x;
+            this.bounds = bounds;
+            this.active = active;
+            this.count = count;
+            this.sink = sink;
+            this.depth = depth;
+        }
+
+        // Reports the points.
+        protected void compute() {
+            if (x == null) {
+                return;
+            }
+            if (depth >= PARALLEL_BATCH_LEVELS) {
+                rangeBatch(x, bounds, active, count, sink, new BatchLevels(count), 0);
+                return;
+            }
+            int[] kept = new int[count];
+            int m = filter(x, bounds, active, count, kept, sink);
+            if (m > 0) {
+                invokeAll(new BatchTask(x.lb, bounds, kept, m, sink, depth + 1),
+                    new BatchTask(x.rt, bounds, kept, m, sink, depth + 1));
+            }
+        }
+    }
+
+    // A task that runs nearestBatch() over a range of queries, halving the range until it holds at
+    // most PARALLEL_NEAREST_BATCH queries.
+    private class NearestBatchTask extends RecursiveAction {
+        private final double[] queries;
+        private final int k;
+        private final IndexedPointSink<Value> sink;
+        private final int lo, hi;
+
+        // Constructs a task that reports the k nearest neighbors of the queries [lo, hi).
+        NearestBatchTask(double[] queries, int k, IndexedPointSink<Value> sink, int lo, int hi) {
+            this.queries = queries;
+            this.k = k;
+            this.sink = sink;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        // Reports the neighbors.
+        protected void compute() {
+            if (hi - lo <= PARALLEL_NEAREST_BATCH) {
+                nearestBatch(queries, k, sink, lo, hi, new BoundedMaxHeap(Math.min(k, n)));
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new NearestBatchTask(queries, k, sink, lo, mid), new NearestBatchTask(queries, k, sink, mid, hi));
+        }
+    }
+
+    // A task that runs join() over a pair of KdTrees, forking for the pairs of children of each
+    // pair of nodes in the top PARALLEL_JOIN_LEVELS levels and descending sequentially below them.
+    private class JoinTask<Other> extends RecursiveAction {
+        private final Node x;
+        private final KdTreePointST<Other>.Node y;
+        private final double d2;
+        private final PairSink<Value, Other> sink;
+        private final int depth;
+
+        // Constructs a task that reports the pairs of points in the KdTrees x and y whose squared
+        // distance is at most d2.
+        JoinTask(Node x, KdTreePointST<Other>.Node y, double d2, PairSink<Value, Other> sink, int depth) {
+            this.x = x;
+            this.y = y;
+            this.d2 = d2;
+            this.sink = sink;
+            this.depth = depth;
+        }
+
+        // Reports the pairs.
+        protected void compute() {
+            if (depth >= PARALLEL_JOIN_LEVELS) {
+                KdTreePointST.this.join(x, y, d2, sink);
+                return;
+            }
+            if (x == null || y == null || x.distanceSquaredTo(y) > d2) {
+                return;
+            }
+            if (distanceSquared(x.x, x.y, y.x, y.y) <= d2) {
+                sink.accept(x.x, x.y, x.value, y.x, y.y, y.value);
+            }
+            joinPoint(x.x, x.y, x.value, y.lb, d2, sink);
+            joinPoint(x.x, x.y, x.value, y.rt, d2, sink);
+            joinTree(x.lb, y.x, y.y, y.value, d2, sink);
+            joinTree(x.rt, y.x, y.y, y.value, d2, sink);
+            invokeAll(new JoinTask<Other>(x.lb, y.lb, d2, sink, depth + 1),
+                new JoinTask<Other>(x.lb, y.rt, d2, sink, depth + 1),
+                new JoinTask<Other>(x.rt, y.lb, d2, sink, depth + 1),
+                new JoinTask<Other>(x.rt, y.rt, d2, sink, depth + 1));
+        }
+    }
+
+    // A task that runs selfJoin() over a KdTree, forking for the subtrees of each node in the top
+    // PARALLEL_JOIN_LEVELS levels and descending sequentially below them.
+    private class SelfJoinTask extends RecursiveAction {
+        private final Node x;
+        private final double d2;
+        private final PairSink<Value, Value> sink;
+        private final int depth;
+
+        // Constructs a task that reports the pairs of distinct points in the KdTree x whose squared
+        // distance is at most d2.
+        SelfJoinTask(Node x, double d2, PairSink<Value, Value> sink, int depth) {
+            this.x = x;
+            this.d2 = d2;
+            this.sink = sink;
+            this.depth = depth;
+        }
+
+        // Reports the pairs.
+        protected void compute() {
+            if (depth >= PARALLEL_JOIN_LEVELS) {
+                selfJoin(x, d2, sink);
+                return;
+            }
+            if (x == null) {
+                return;
+            }
+            joinPoint(x.x, x.y, x.value, x.lb, d2, sink);
+            joinPoint(x.x, x.y, x.value, x.rt, d2, sink);
+            invokeAll(new SelfJoinTask(x.lb, d2, sink, depth + 1),
+                new SelfJoinTask(x.rt, d2, sink, depth + 1),
+                new JoinTask<Value>(x.lb, x.rt, d2, sink, depth + 1));
+        }
+    }
+
+    // The per-level arrays of active rectangles used by one sequential rangeBatch() descent.
+    private static class BatchLevels {
+        private final int size;  // the length of each array
+        private int[][] levels;  // the arrays, allocated as the descent first reaches each level
+
+        // Constructs arrays for descents carrying at most size rectangles.
+        BatchLevels(int size) {
+            this.size = size;
+            this.levels = new int[16][];
+        }
+
+        // Returns the array for the given level.
+        int[] get(int depth) {
+            if (depth == levels.length) {
+                levels = Arrays.copyOf(levels, 2 * depth);
+            }
+            if (levels[depth] == null) {
+                levels[depth] = new int[size];
+            }
+            return levels[depth];
+        }
+    }
+
+    // A spliterator over the points of a KdTree that are inside [xmin, xmax] x [ymin, ymax], which
+    // walks the tree depth-first with a stack of the subtrees still to visit and splits off the
+    // subtree nearest the root. If whole is true, the rectangle holds the whole tree and the
+    // subtree sizes give exact counts.
+    private class PointSpliterator implements Spliterator<Point2D> {
+        private final double xmin, ymin, xmax, ymax;  // the rectangle
+        private final boolean whole;                  // does the rectangle hold every point?
+        private final ArrayDeque<Node> stack;         // the subtrees still to visit, next on top
+        private Node pending;                         // a node whose point is next, but whose subtrees are on the stack
+        private final int modCount;                   // the symbol table's modCount at creation
+
+        // Constructs a spliterator over the KdTree x.
+        PointSpliterator(Node x, double xmin, double ymin, double xmax, double ymax, boolean whole) {
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+            this.whole = whole;
+            this.stack = new ArrayDeque<Node>();
+            this.modCount = KdTreePointST.this.modCount;
+            push(x);
+        }
 
-                // ... and the x value of the point in the current node is less than the x value of the target point...
-                if (p.x() < x.p.x()) {
+        // Passes the next point to action and returns true, or returns false if there is none.
+        public boolean tryAdvance(Consumer<? super Point2D> action) {
+            if (action == null) {
+                throw new NullPointerException("action is null");
+            }
+            Node x = next();
+            if (x == null) {
+                return false;
+            }
+            action.accept(x.point());
+            return true;
+        }
 
-                    // Calls the nearest method recursively on the left child and then the right child of the current node
-                    nearest(x.lb, p, k, pq, false);
-                    nearest(x.rt, p, k, pq, false);
-                } else { // ... and the x value of the point in the current node is greater than or equal to the x value of the target point...
+        // Passes every remaining point to action.
+        public void forEachRemaining(Consumer<? super Point2D> action) {
+            if (action == null) {
+                throw new NullPointerException("action is null");
+            }
+            for (Node x = next(); x != null; x = next()) {
+                action.accept(x.point());
+            }
+        }
 
-                    // Calls the nearest method recursively on the right child and then the left child of the current node
-                    nearest(x.rt, p, k, pq, false);
-                    nearest(x.lb, p, k, pq, false);
+        // Hands the subtree nearest the root over to a new spliterator, or returns null if there is
+        // only one point left to visit.
+        public Spliterator<Point2D> trySplit() {
+            if (pending == null && stack.size() == 1) {
+                // Keeps the point and left/bottom subtree of the only subtree, and splits off its
+                // right/top subtree
+                Node x = stack.pop();
+                pending = x;
+                push(x.lb);
+                if (x.rt != null && intersects(x.rt)) {
+                    return new PointSpliterator(x.rt, xmin, ymin, xmax, ymax, whole);
                 }
-            } else { // If we should be comparing based on the y values...
+                return null;
+            }
+            if (stack.isEmpty()) {
+                return null;
+            }
+            return new PointSpliterator(stack.removeLast(), xmin, ymin, xmax, ymax, whole);
+        }
 
-                // ... and the y value of the point in the current node is less than the y value of the target point...
-                if (p.y() < x.p.y()) {
+        // Returns the number of points left to visit, exactly if whole is true and as an upper
+        // bound otherwise.
+        public long estimateSize() {
+            long size = pending == null ? 0 : 1;
+            for (Node x : stack) {
+                size += x.size;
+            }
+            return size;
+        }
 
-                    // Calls the nearest method recursively on the left child and then the right child of the current node
-                    nearest(x.lb, p, k, pq, true);
-                    nearest(x.rt, p, k, pq, true);
-                } else { // ... and the y value of the point in the current node is greater than or equal to the y value of the target point...
+        // Returns the characteristics of this spliterator.
+        public int characteristics() {
+            return DISTINCT | NONNULL | (whole ? SIZED | SUBSIZED : 0);
+        }
 
-                    // Calls the nearest method recursively on the right child and then the left child of the current node
-                    nearest(x.rt, p, k, pq, true);
-                    nearest(x.lb, p, k, pq, true);
+        // Returns the next node whose point is inside the rectangle, or null if there is none.
+        private Node next() {
+            if (this.modCount != KdTreePointST.this.modCount) {
+                throw new ConcurrentModificationException("points were added during the walk");
+            }
+            if (pending != null) {
+                Node x = pending;
+                pending = null;
+                if (contains(x)) {
+                    return x;
+                }
+            }
+            while (!stack.isEmpty()) {
+                Node x = stack.pop();
+                push(x.rt);
+                push(x.lb);
+                if (contains(x)) {
+                    return x;
                 }
             }
+            return null;
+        }
+
+        // Pushes the KdTree x onto the stack if it exists and intersects the rectangle.
+        private void push(Node x) {
+            if (x != null && intersects(x)) {
+                stack.push(x);
+            }
+        }
+
+        // Returns true if x's rectangle intersects the rectangle, and false otherwise.
+        private boolean intersects(Node x) {
+            return x.xmax >= xmin && x.xmin <= xmax && x.ymax >= ymin && x.ymin <= ymax;
+        }
+
+        // Returns true if x's point is inside the rectangle, and false otherwise.
+        private boolean contains(Node x) {
+            return x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax;
+        }
+    }
+
+    // A range search over a rectangle that moves. Each move reports only the points that entered
+    // and the points that left the rectangle, and visits only the nodes whose rectangles straddle
+    // the old or the new one, so that panning or resizing costs in proportion to the change rather
+    // than to the number of points inside. Adding points to the symbol table invalidates the cursor.
+    public class RangeCursor {
+        private double xmin, ymin, xmax, ymax;  // the current rectangle
+        private int modCount;                  // the symbol table's modCount when last moved
+
+        // Constructs a cursor on an empty rectangle.
+        RangeCursor() {
+            this.xmin = Double.POSITIVE_INFINITY;
+            this.ymin = Double.POSITIVE_INFINITY;
+            this.xmax = Double.NEGATIVE_INFINITY;
+            this.ymax = Double.NEGATIVE_INFINITY;
+            this.modCount = KdTreePointST.this.modCount;
+        }
+
+        // Moves this cursor to the given rectangle, reporting to entered the points inside it but
+        // not inside the previous one, and to left the points inside the previous one but not it.
+        public void moveTo(RectHV rect, PointSink<Value> entered, PointSink<Value> left) {
+            // If the given rectangle is null, throws the appropriate error
+            if (rect == null) {
+                throw new NullPointerException("rect is null");
+            }
+            moveTo(rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(), entered, left);
+        }
+
+        // Moves this cursor to the rectangle [xmin, xmax] x [ymin, ymax], reporting to entered the
+        // points inside it but not inside the previous one, and to left the points inside the
+        // previous one but not it.
+        public void moveTo(double xmin, double ymin, double xmax, double ymax, PointSink<Value> entered,
+                           PointSink<Value> left) {
+            // If a sink is null, or points were added since the last move, throws the appropriate error
+            if (entered == null) {
+                throw new NullPointerException("entered is null");
+            }
+            if (left == null) {
+                throw new NullPointerException("left is null");
+            }
+            if (this.modCount != KdTreePointST.this.modCount) {
+                throw new ConcurrentModificationException("points were added since the last move");
+            }
+            move(root, xmin, ymin, xmax, ymax, entered, left);
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+        }
+
+        // Clears this cursor back to an empty rectangle, reporting every point inside the current
+        // one to left, and accepts points added since the last move. If points were added, nothing
+        // is reported, and the caller should drop whatever it built from the earlier moves.
+        public void reset(PointSink<Value> left) {
+            // If the sink is null, throws the appropriate error
+            if (left == null) {
+                throw new NullPointerException("left is null");
+            }
+            if (this.modCount == KdTreePointST.this.modCount) {
+                range(root, this.xmin, this.ymin, this.xmax, this.ymax, null, left);
+            }
+            this.xmin = Double.POSITIVE_INFINITY;
+            this.ymin = Double.POSITIVE_INFINITY;
+            this.xmax = Double.NEGATIVE_INFINITY;
+            this.ymax = Double.NEGATIVE_INFINITY;
+            this.modCount = KdTreePointST.this.modCount;
+        }
+
+        // Reports the points in the KdTree x that move in or out as the rectangle moves to
+        // [xmin, xmax] x [ymin, ymax].
+        private void move(Node x, double xmin, double ymin, double xmax, double ymax, PointSink<Value> entered,
+                          PointSink<Value> left) {
+            // Skips subtrees whose rectangle lies wholly inside both rectangles or wholly outside
+            // both, since none of their points change sides
+            if (x == null) {
+                return;
+            }
+            boolean inOld = x.xmin >= this.xmin && x.xmax <= this.xmax && x.ymin >= this.ymin && x.ymax <= this.ymax;
+            boolean inNew = x.xmin >= xmin && x.xmax <= xmax && x.ymin >= ymin && x.ymax <= ymax;
+            if (inOld && inNew) {
+                return;
+            }
+            boolean meetsOld = x.xmax >= this.xmin && x.xmin <= this.xmax && x.ymax >= this.ymin && x.ymin <= this.ymax;
+            boolean meetsNew = x.xmax >= xmin && x.xmin <= xmax && x.ymax >= ymin && x.ymin <= ymax;
+            if (!meetsOld && !meetsNew) {
+                return;
+            }
+
+            // Reports the point in the current node if it changes sides
+            boolean wasIn = x.x >= this.xmin && x.x <= this.xmax && x.y >= this.ymin && x.y <= this.ymax;
+            boolean isIn = x.x >= xmin && x.x <= xmax && x.y >= ymin && x.y <= ymax;
+            if (isIn && !wasIn) {
+                entered.accept(x.x, x.y, x.value);
+            } else if (wasIn && !isIn) {
+                left.accept(x.x, x.y, x.value);
+            }
+
+            // Recursively moves over the left and right children of the current node
+            move(x.lb, xmin, ymin, xmax, ymax, entered, left);
+            move(x.rt, xmin, ymin, xmax, ymax, entered, left);
         }
     }
 
     // A representation of node in a KdTree in two dimensions (ie, a 2dTree). Each node stores a
-    // 2d point (the key), a value, an axis-aligned rectangle, and references to the left/bottom
-    // and right/top subtrees.
+    // 2d point (the key) as raw coordinates, a value, an axis-aligned rectangle as raw bounds, and
+    // references to the left/bottom and right/top subtrees. The point's Point2D is made the first
+    // time it is asked for, unless the node was filled from one. Nodes live in the symbol table's
+    // arena and are refilled, rather than replaced, when it is cleared or rebuilt.
     private class Node {
-        private Point2D p;   // the point (key)
-        private Value value; // the value
-        private RectHV rect; // the axis-aligned rectangle
-        private Node lb;     // the left/bottom subtree
-        private Node rt;     // the right/top subtree
-
-        // Constructs a node given the point (key), the associated value, and the
-        // corresponding axis-aligned rectangle.
-        Node(Point2D p, Value value, RectHV rect) {
+        private double x, y;                      // the point (key)
+        private Point2D p;                        // the point as a Point2D, or null
+        private Value value;                      // the value
+        private double xmin, ymin;                // the axis-aligned rectangle
+        private double xmax, ymax;
+        private Node lb;                          // the left/bottom subtree
+        private Node rt;                          // the right/top subtree
+        private int size;                         // the number of points in the subtree
+        private int slot;                         // the node's slot in the arena
+
+        // Fills this node, as a leaf, with the point (key) and its Point2D (or null), the associated
+        // value, and the bounds of the corresponding axis-aligned rectangle.
+        void set(double x, double y, Point2D p, Value value, double xmin, double ymin, double xmax, double ymax) {
+            this.x = x;
+            this.y = y;
             this.p = p;
             this.value = value;
-            this.rect = rect;
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+            this.lb = null;
+            this.rt = null;
+            this.size = 1;
+        }
+
+        // Returns the point (key) as a Point2D.
+        Point2D point() {
+            if (p == null) {
+                p = new Point2D(x, y);
+            }
+            return p;
+        }
+
+        // Returns the squared distance between the point (px, py) and this node's rectangle.
+        double distanceSquaredTo(double px, double py) {
+            double dx = px < xmin ? xmin - px : px > xmax ? px - xmax : 0.0;
+            double dy = py < ymin ? ymin - py : py > ymax ? py - ymax : 0.0;
+            return dx * dx + dy * dy;
+        }
+
+        // Returns the squared distance between this node's rectangle and that node's.
+        double distanceSquaredTo(KdTreePointST<?>.Node that) {
+            double dx = Math.max(0.0, Math.max(that.xmin - xmax, xmin - that.xmax));
+            double dy = Math.max(0.0, Math.max(that.ymin - ymax, ymin - that.ymax));
+            return dx * dx + dy * dy;
         }
     }
 
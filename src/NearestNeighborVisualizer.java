@@ -1,30 +1,45 @@
-// Accepts filename (String) and k (int) as command-line arguments; draws points from the file
-// using standard draw; and highlights the k points closest to the mouse. The search results
-// obtained using BrutePointST are highlighted in red while those obtained using the KdTreeST are
-// highlighted in blue.
+// Accepts filename (String), k (int), and optionally mode ("full" or "cached") as command-line
+// arguments; draws points from the file using standard draw; and highlights the k points closest
+// to the mouse. The search results obtained using BrutePointST are highlighted in red while those
+// obtained using the KdTreeST are highlighted in blue, and the mean latency of the searches each
+// one actually ran (those not answered from the cache) is shown in the top left corner. In "full"
+// mode (the default) every point is drawn on every frame; in "cached" mode the points are drawn
+// once into an offscreen image, which is then drawn under the highlights on every frame.
+
+import java.awt.Color;
 
 import dsa.Point2D;
-import stdlib.In;
 import stdlib.StdDraw;
 
 public class NearestNeighborVisualizer {
+    // The number of search results cached per data structure.
+    private static final int CACHE_CAPACITY = 64;
+
+    // The size of the canvas, StdDraw's default, in pixels.
+    private static final int CANVAS_SIZE = 512;
+
     // Entry point.
     public static void main(String[] args) {
         String filename = args[0];
         int k = Integer.parseInt(args[1]);
-        In in = new In(filename);
+        String mode = args.length > 2 ? args[2] : "full";
+        if (!mode.equals("full") && !mode.equals("cached")) {
+            throw new IllegalArgumentException("Illegal command-line argument");
+        }
+        double[] coords = PointFileLoader.load(filename);
 
         // Initialize the data structures with n points from the file.
-        BrutePointST<Integer> brute = new BrutePointST<Integer>();
-        KdTreePointST<Integer> kdtree = new KdTreePointST<Integer>();
-        for (int i = 0; !in.isEmpty(); i++) {
-            double x = in.readDouble();
-            double y = in.readDouble();
-            Point2D p = new Point2D(x, y);
-            kdtree.put(p, i);
-            brute.put(p, i);
+        BrutePointST<Integer> brutest = new BrutePointST<Integer>();
+        for (int i = 0; i < coords.length / 2; i++) {
+            brutest.put(new Point2D(coords[2 * i], coords[2 * i + 1]), i);
         }
 
+        // Cache the search results, since the mouse is often still between frames.
+        CachingPointST<Integer> brute = new CachingPointST<Integer>(brutest, CACHE_CAPACITY);
+        CachingPointST<Integer> kdtree = new CachingPointST<Integer>(KdTreePointST.build(coords, i -> i),
+            CACHE_CAPACITY);
+        PointLayer layer = new PointLayer(coords, Color.BLACK, CANVAS_SIZE, CANVAS_SIZE);
+
         // Enable double buffering to avoid flicker.
         StdDraw.enableDoubleBuffering();
 
@@ -36,10 +51,14 @@ public class NearestNeighborVisualizer {
 
             // Draw all of the points.
             StdDraw.clear();
-            StdDraw.setPenColor(StdDraw.BLACK);
-            StdDraw.setPenRadius(0.01);
-            for (Point2D p : brute.points()) {
-                p.draw();
+            if (mode.equals("cached")) {
+                layer.draw(0.0, 0.0, 1.0, 1.0, 0.01);
+            } else {
+                StdDraw.setPenColor(StdDraw.BLACK);
+                StdDraw.setPenRadius(0.01);
+                for (Point2D p : brute.points()) {
+                    p.draw();
+                }
             }
 
             // Highlight the k nearest neighbors obtained using BrutePointST.
@@ -66,6 +85,11 @@ public class NearestNeighborVisualizer {
                 }
             }
 
+            // Show the search latencies.
+            StdDraw.setPenColor(StdDraw.BLACK);
+            StdDraw.textLeft(0.01, 0.98, String.format("brute %.3f ms, kdtree %.3f ms per search (%.0f%% cached)",
+                brute.meanMissNanos() / 1e6, kdtree.meanMissNanos() / 1e6, 100 * kdtree.hitRatio()));
+
             StdDraw.show();
             StdDraw.pause(40);
         }
@@ -0,0 +1,675 @@
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import dsa.LinkedQueue;
+import dsa.Point2D;
+import dsa.RectHV;
+import stdlib.StdIn;
+import stdlib.StdOut;
+
+// A 2dTree symbol table whose coordinates and child links live off the Java heap, in direct
+// buffers, so that a large and mostly static table adds next to nothing for the garbage collector
+// to trace. Node i is an int handle. The nodes are stored in segments of SEGMENT_NODES: node i
+// lives in segment s = i / SEGMENT_NODES at position j = i % SEGMENT_NODES, its point in the 16
+// bytes at 16j of coords[s], its left/bottom and right/top children in the 8 bytes at 8j of
+// links[s], with -1 standing for null, and its value is values[s][j] in a compact on-heap side
+// table. No buffer is larger than 256 MB, so the table holds as many points as there are int
+// handles, and growing it past the first segment adds a segment rather than copying the others.
+// Node rectangles are not stored; searches derive them from the splitting coordinates on the way
+// down.
+//
+// Per point this costs 24 bytes off-heap plus one value reference on-heap, against a Node, a
+// Point2D and a RectHV (roughly 120 bytes, all of them traced objects) in KdTreePointST.
+//
+// Where the platform has the foreign memory API (Java 22 and later), each segment is allocated in
+// an arena of its own, which close() frees at once; elsewhere segments are plain direct buffers,
+// whose memory the JDK returns once they are garbage collected (and collects them for, if it runs
+// short). Either way the table must be closed when it is no longer needed, after which every
+// operation throws an IllegalStateException.
+public class OffHeapKdTreePointST<Value> implements PointST<Value>, AutoCloseable {
+    // The number of nodes allocated up front
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The number of nodes in a full segment; the first segment doubles until it is full, and the
+    // others are allocated full
+    private static final int SEGMENT_SHIFT = 24;
+    private static final int SEGMENT_NODES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_NODES - 1;
+
+    // The number of points main() checks by default, and the handle past which the byte offsets of
+    // a single coordinate buffer would overflow an int
+    private static final int CHECK_POINTS = 1 << 16;
+    private static final int INT_OFFSET_BOUNDARY = 1 << 27;
+
+    // The foreign memory API's Arena.ofShared(), Arena.allocate(long, long) and
+    // MemorySegment.asByteBuffer(), or null where the platform does not have the API final
+    private static final Method[] FOREIGN = foreign();
+
+    // Declares the instance variables
+    private ByteBuffer[] coords;     // the coordinates of each segment's nodes
+    private ByteBuffer[] links;      // the child links of each segment's nodes
+    private AutoCloseable[] arenas;  // the arena each segment lives in, or null
+    private Object[][] values;       // the values of each segment's nodes
+    private long capacity;           // the number of nodes the segments have room for
+    private int n;
+    private boolean closed;
+
+    // Constructs an empty symbol table.
+    public OffHeapKdTreePointST() {
+        this.coords = new ByteBuffer[1];
+        this.links = new ByteBuffer[1];
+        this.arenas = new AutoCloseable[1];
+        this.values = new Object[1][];
+        allocate(0, INITIAL_CAPACITY);
+    }
+
+    // Returns true if this symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        checkOpen();
+        return this.n == 0;
+    }
+
+    // Returns the number of key-value pairs in this symbol table.
+    public int size() {
+        checkOpen();
+        return this.n;
+    }
+
+    // Inserts the given point and value into this symbol table.
+    public void put(Point2D p, Value value) {
+        // If the point to be inserted is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        put(p.x(), p.y(), value);
+    }
+
+    // Inserts the point (px, py) and the given value into this symbol table.
+    public void put(double px, double py, Value value) {
+        // If the value to be inserted is null or the point is not one, throws the appropriate error
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        checkPoint(px, py);
+        checkOpen();
+
+        // If this is the first item added to the symbol table, it becomes the root (node 0)
+        if (this.n == 0) {
+            append(px, py, value);
+            return;
+        }
+
+        // Walks down from the root as KdTreePointST.put() does, replacing the value if the point
+        // is found and hanging a new node off the last link otherwise
+        int x = 0;
+        boolean lr = true;
+        while (true) {
+            double nx = xAt(x), ny = yAt(x);
+            if (nx == px && ny == py) {
+                this.values[x >>> SEGMENT_SHIFT][x & SEGMENT_MASK] = value;
+                return;
+            }
+            boolean left = lr ? px < nx : py < ny;
+            int child = left ? lb(x) : rt(x);
+            if (child == -1) {
+                int node = append(px, py, value);
+                link(x, left, node);
+                return;
+            }
+            x = child;
+            lr = !lr;
+        }
+    }
+
+    // Returns the value associated with the given point in this symbol table, or null.
+    public Value get(Point2D p) {
+        // If the point to be retrieved is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return get(p.x(), p.y());
+    }
+
+    // Returns the value associated with the point (px, py) in this symbol table, or null.
+    public Value get(double px, double py) {
+        checkPoint(px, py);
+        checkOpen();
+        int x = find(px, py);
+        return x == -1 ? null : value(x);
+    }
+
+    // Returns true if this symbol table contains the given point, and false otherwise.
+    public boolean contains(Point2D p) {
+        // If the point to be checked for is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return contains(p.x(), p.y());
+    }
+
+    // Returns true if this symbol table contains the point (px, py), and false otherwise.
+    public boolean contains(double px, double py) {
+        checkPoint(px, py);
+        checkOpen();
+        return find(px, py) != -1;
+    }
+
+    // Returns all the points in this symbol table.
+    public Iterable<Point2D> points() {
+        checkOpen();
+
+        // Handles are dense, so the points can be read off in insertion order without a traversal
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        for (int i = 0; i < this.n; i++) {
+            q.enqueue(point(i));
+        }
+        return q;
+    }
+
+    // Returns all the points in this symbol table that are inside the given rectangle.
+    public Iterable<Point2D> range(RectHV rect) {
+        // If the given rectangle is null, throws the appropriate error
+        if (rect == null) {
+            throw new NullPointerException("rect is null");
+        }
+        checkOpen();
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        range(rect.xMin(), rect.yMin(), rect.xMax(), rect.yMax(), q, null);
+        return q;
+    }
+
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        // If the given sink is null, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        checkOpen();
+        range(xmin, ymin, xmax, ymax, null, sink);
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the given point,
+    // or null.
+    public Point2D nearest(Point2D p) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        return nearest(p.x(), p.y());
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (px, py), or null.
+    public Point2D nearest(double px, double py) {
+        checkPoint(px, py);
+        checkOpen();
+        BoundedMaxHeap heap = new BoundedMaxHeap(1);
+        nearest(px, py, heap);
+        return heap.size() == 0 ? null : point(heap.handle(0));
+    }
+
+    // Returns up to k points from this symbol table that are different from and closest to the
+    // given point.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        // If the given point is null, throws the appropriate error
+        if (p == null) {
+            throw new NullPointerException("p is null");
+        }
+        checkOpen();
+        BoundedMaxHeap heap = new BoundedMaxHeap(Math.min(k, this.n));
+        nearest(p.x(), p.y(), heap);
+
+        // Returns the points closest first
+        heap.sort();
+        LinkedQueue<Point2D> q = new LinkedQueue<Point2D>();
+        for (int i = 0; i < heap.size(); i++) {
+            q.enqueue(point(heap.handle(i)));
+        }
+        return q;
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (px, py).
+    public void nearest(double px, double py, int k, PointSink<Value> sink) {
+        // If the given sink is null or the point is not one, throws the appropriate error
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        checkPoint(px, py);
+        checkOpen();
+        BoundedMaxHeap heap = new BoundedMaxHeap(Math.min(k, this.n));
+        nearest(px, py, heap);
+        heap.sort();
+        for (int i = 0; i < heap.size(); i++) {
+            int x = heap.handle(i);
+            sink.accept(xAt(x), yAt(x), value(x));
+        }
+    }
+
+    // Releases the off-heap memory held by this symbol table. Closing an already closed table has
+    // no effect.
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (AutoCloseable arena : this.arenas) {
+            free(arena);
+        }
+        this.coords = null;
+        this.links = null;
+        this.arenas = null;
+        this.values = null;
+        this.n = 0;
+    }
+
+    // Returns the handle of the node holding the point (px, py), or -1.
+    private int find(double px, double py) {
+        int x = this.n == 0 ? -1 : 0;
+        boolean lr = true;
+        while (x != -1) {
+            double nx = xAt(x), ny = yAt(x);
+            if (nx == px && ny == py) {
+                return x;
+            }
+            x = (lr ? px < nx : py < ny) ? lb(x) : rt(x);
+            lr = !lr;
+        }
+        return -1;
+    }
+
+    // Collects the points inside [qxmin, qxmax] x [qymin, qymax], in q if it is not null, and
+    // reports them to sink otherwise.
+    private void range(double qxmin, double qymin, double qxmax, double qymax, LinkedQueue<Point2D> q,
+                       PointSink<Value> sink) {
+        if (this.n > 0) {
+            range(0, true, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY, qxmin, qymin, qxmax, qymax, q, sink);
+        }
+    }
+
+    // Collects the points in the subtree rooted at x, whose rectangle is [xmin, xmax] x [ymin, ymax],
+    // that are inside the query rectangle [qxmin, qxmax] x [qymin, qymax].
+    private void range(int x, boolean lr, double xmin, double ymin, double xmax, double ymax,
+                       double qxmin, double qymin, double qxmax, double qymax, LinkedQueue<Point2D> q,
+                       PointSink<Value> sink) {
+        if (x == -1 || xmax < qxmin || xmin > qxmax || ymax < qymin || ymin > qymax) {
+            return;
+        }
+        double nx = xAt(x), ny = yAt(x);
+        if (nx >= qxmin && nx <= qxmax && ny >= qymin && ny <= qymax) {
+            if (q != null) {
+                q.enqueue(point(x));
+            } else {
+                sink.accept(nx, ny, value(x));
+            }
+        }
+        if (lr) {
+            range(lb(x), false, xmin, ymin, nx, ymax, qxmin, qymin, qxmax, qymax, q, sink);
+            range(rt(x), false, nx, ymin, xmax, ymax, qxmin, qymin, qxmax, qymax, q, sink);
+        } else {
+            range(lb(x), true, xmin, ymin, xmax, ny, qxmin, qymin, qxmax, qymax, q, sink);
+            range(rt(x), true, xmin, ny, xmax, ymax, qxmin, qymin, qxmax, qymax, q, sink);
+        }
+    }
+
+    // Collects in heap the nodes closest to (px, py), other than the one holding that point.
+    private void nearest(double px, double py, BoundedMaxHeap heap) {
+        if (this.n > 0) {
+            nearest(0, true, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY, px, py, heap);
+        }
+    }
+
+    // Collects in heap the nodes from the subtree rooted at x, whose rectangle is
+    // [xmin, xmax] x [ymin, ymax], that are closest to (px, py), visiting the child on the side of
+    // the query point first.
+    private void nearest(int x, boolean lr, double xmin, double ymin, double xmax, double ymax,
+                         double px, double py, BoundedMaxHeap heap) {
+        if (x == -1) {
+            return;
+        }
+        double dx = px < xmin ? xmin - px : px > xmax ? px - xmax : 0.0;
+        double dy = py < ymin ? ymin - py : py > ymax ? py - ymax : 0.0;
+        if (dx * dx + dy * dy >= heap.bound()) {
+            return;
+        }
+        double nx = xAt(x), ny = yAt(x);
+        if (nx != px || ny != py) {
+            double ex = nx - px, ey = ny - py;
+            heap.offer(x, ex * ex + ey * ey);
+        }
+        int lb = lb(x), rt = rt(x);
+        if (lr) {
+            if (px < nx) {
+                nearest(lb, false, xmin, ymin, nx, ymax, px, py, heap);
+                nearest(rt, false, nx, ymin, xmax, ymax, px, py, heap);
+            } else {
+                nearest(rt, false, nx, ymin, xmax, ymax, px, py, heap);
+                nearest(lb, false, xmin, ymin, nx, ymax, px, py, heap);
+            }
+        } else {
+            if (py < ny) {
+                nearest(lb, true, xmin, ymin, xmax, ny, px, py, heap);
+                nearest(rt, true, xmin, ny, xmax, ymax, px, py, heap);
+            } else {
+                nearest(rt, true, xmin, ny, xmax, ymax, px, py, heap);
+                nearest(lb, true, xmin, ymin, xmax, ny, px, py, heap);
+            }
+        }
+    }
+
+    // Appends a childless node for the given point and value, growing the storage if needed, and
+    // returns its handle.
+    private int append(double px, double py, Value value) {
+        if (this.n == this.capacity) {
+            grow();
+        }
+        int x = this.n++;
+        int s = x >>> SEGMENT_SHIFT, j = x & SEGMENT_MASK;
+        this.coords[s].putDouble(16 * j, px);
+        this.coords[s].putDouble(16 * j + 8, py);
+        this.links[s].putInt(8 * j, -1);
+        this.links[s].putInt(8 * j + 4, -1);
+        this.values[s][j] = value;
+        return x;
+    }
+
+    // Returns the x-coordinate of the point held by node x.
+    private double xAt(int x) {
+        return this.coords[x >>> SEGMENT_SHIFT].getDouble(16 * (x & SEGMENT_MASK));
+    }
+
+    // Returns the y-coordinate of the point held by node x.
+    private double yAt(int x) {
+        return this.coords[x >>> SEGMENT_SHIFT].getDouble(16 * (x & SEGMENT_MASK) + 8);
+    }
+
+    // Returns the left/bottom child of node x, or -1.
+    private int lb(int x) {
+        return this.links[x >>> SEGMENT_SHIFT].getInt(8 * (x & SEGMENT_MASK));
+    }
+
+    // Returns the right/top child of node x, or -1.
+    private int rt(int x) {
+        return this.links[x >>> SEGMENT_SHIFT].getInt(8 * (x & SEGMENT_MASK) + 4);
+    }
+
+    // Makes child the left/bottom (if left is true) or right/top child of node x.
+    private void link(int x, boolean left, int child) {
+        this.links[x >>> SEGMENT_SHIFT].putInt(8 * (x & SEGMENT_MASK) + (left ? 0 : 4), child);
+    }
+
+    // Returns the point held by node x.
+    private Point2D point(int x) {
+        return new Point2D(xAt(x), yAt(x));
+    }
+
+    // Returns the value held by node x.
+    @SuppressWarnings("unchecked")
+    private Value value(int x) {
+        return (Value) this.values[x >>> SEGMENT_SHIFT][x & SEGMENT_MASK];
+    }
+
+    // Makes room for one more node, by doubling the last segment if it is not full, and by adding a
+    // full segment otherwise.
+    private void grow() {
+        if (this.n == Integer.MAX_VALUE) {
+            throw new IllegalStateException("symbol table is full");
+        }
+        int s = this.n >>> SEGMENT_SHIFT;
+        int used = this.n & SEGMENT_MASK;
+        if (s == this.coords.length) {
+            this.coords = Arrays.copyOf(this.coords, 2 * s);
+            this.links = Arrays.copyOf(this.links, 2 * s);
+            this.arenas = Arrays.copyOf(this.arenas, 2 * s);
+            this.values = Arrays.copyOf(this.values, 2 * s);
+        }
+        allocate(s, used == 0 ? SEGMENT_NODES : Math.min(2 * used, SEGMENT_NODES));
+    }
+
+    // Moves segment s to new buffers with room for the given number of nodes, copying the nodes it
+    // holds and freeing its old buffers.
+    private void allocate(int s, int nodes) {
+        AutoCloseable arena = arena();
+        ByteBuffer coords = allocate(arena, 16L * nodes);
+        ByteBuffer links = allocate(arena, 8L * nodes);
+        int used = this.n - (s << SEGMENT_SHIFT);
+        if (this.coords[s] != null) {
+            this.coords[s].clear().limit(16 * used);
+            this.links[s].clear().limit(8 * used);
+            coords.put(this.coords[s]).clear();
+            links.put(this.links[s]).clear();
+            free(this.arenas[s]);
+        }
+        this.coords[s] = coords;
+        this.links[s] = links;
+        this.arenas[s] = arena;
+        this.values[s] = this.values[s] == null ? new Object[nodes] : Arrays.copyOf(this.values[s], nodes);
+        this.capacity = ((long) s << SEGMENT_SHIFT) + nodes;
+    }
+
+    // Throws an IllegalArgumentException if (x, y) is not a point, as Point2D's constructor does for
+    // a NaN coordinate, which would otherwise never equal itself and so never be found again.
+    private static void checkPoint(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            throw new IllegalArgumentException("(" + x + ", " + y + ") is not a point");
+        }
+    }
+
+    // Throws an IllegalStateException if this symbol table has been closed.
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("symbol table is closed");
+        }
+    }
+
+    // Returns a new shared arena, or null where the platform does not have the foreign memory API.
+    private static AutoCloseable arena() {
+        if (FOREIGN == null) {
+            return null;
+        }
+        try {
+            return (AutoCloseable) FOREIGN[0].invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("could not create an arena", e);
+        }
+    }
+
+    // Returns a new native-order direct buffer of the given number of bytes, allocated in arena,
+    // or on its own if arena is null.
+    private static ByteBuffer allocate(AutoCloseable arena, long bytes) {
+        ByteBuffer buffer;
+        if (arena == null) {
+            buffer = ByteBuffer.allocateDirect((int) bytes);
+        } else {
+            try {
+                buffer = (ByteBuffer) FOREIGN[2].invoke(FOREIGN[1].invoke(arena, bytes, 8L));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("could not allocate " + bytes + " bytes", e);
+            }
+        }
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    // Frees the memory of the given arena now. The buffers allocated on their own (a null arena)
+    // are left for the garbage collector.
+    private static void free(AutoCloseable arena) {
+        if (arena == null) {
+            return;
+        }
+        try {
+            arena.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("could not free an arena", e);
+        }
+    }
+
+    // Returns the methods of the foreign memory API this class uses, looked up reflectively so
+    // that it still builds and runs where the API is missing or a preview, or null there.
+    private static Method[] foreign() {
+        if (Runtime.version().feature() < 22) {
+            return null;
+        }
+        try {
+            Class<?> arena = Class.forName("java.lang.foreign.Arena");
+            Class<?> segment = Class.forName("java.lang.foreign.MemorySegment");
+            return new Method[] {arena.getMethod("ofShared"), arena.getMethod("allocate", long.class, long.class),
+                segment.getMethod("asByteBuffer")};
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Unit tests the data type. Run as "check" followed by an optional n, instead checks the table
+    // on n pseudo-random points (CHECK_POINTS by default; see check()).
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("check")) {
+            check(args.length > 1 ? Integer.parseInt(args[1]) : CHECK_POINTS);
+            return;
+        }
+        try (OffHeapKdTreePointST<Integer> st = new OffHeapKdTreePointST<Integer>()) {
+            double qx = Double.parseDouble(args[0]);
+            double qy = Double.parseDouble(args[1]);
+            int k = Integer.parseInt(args[2]);
+            Point2D query = new Point2D(qx, qy);
+            RectHV rect = new RectHV(-1, -1, 1, 1);
+            int i = 0;
+            while (!StdIn.isEmpty()) {
+                double x = StdIn.readDouble();
+                double y = StdIn.readDouble();
+                Point2D p = new Point2D(x, y);
+                st.put(p, i++);
+            }
+            StdOut.println("st.empty()? " + st.isEmpty());
+            StdOut.println("st.size() = " + st.size());
+            StdOut.printf("st.contains(%s)? %s\n", query, st.contains(query));
+            StdOut.printf("st.range(%s):\n", rect);
+            for (Point2D p : st.range(rect)) {
+                StdOut.println("  " + p);
+            }
+            StdOut.printf("st.nearest(%s) = %s\n", query, st.nearest(query));
+            StdOut.printf("st.nearest(%s, %d):\n", query, k);
+            for (Point2D p : st.nearest(query, k)) {
+                StdOut.println("  " + p);
+            }
+        }
+    }
+
+    // Puts n pseudo-random points in the unit square into a table, and checks that get(), nearest()
+    // and range() find the points on both sides of every segment boundary and of
+    // INT_OFFSET_BOUNDARY that n reaches, that nearest(p, k) with a k far larger than the table
+    // returns the whole table, and that a closed table refuses further operations. Prints each check
+    // as it passes, and exits with status 1 at the first one that fails. The default n runs in
+    // seconds but crosses no boundary; n = 2^27 + 2^20 crosses them all, and needs about 24n bytes
+    // of direct memory (java -Xmx1g -XX:MaxDirectMemorySize=4g) and several minutes.
+    private static void check(int n) {
+        // A k larger than the table must not size anything by k
+        try (OffHeapKdTreePointST<Integer> st = new OffHeapKdTreePointST<Integer>()) {
+            for (int i = 0; i < 100; i++) {
+                st.put(checkX(i), checkY(i), checkValue(i));
+            }
+            int[] count = new int[1];
+            for (Point2D p : st.nearest(new Point2D(2.0, 2.0), Integer.MAX_VALUE)) {
+                count[0]++;
+            }
+            st.nearest(2.0, 2.0, Integer.MAX_VALUE, (x, y, value) -> count[0]++);
+            verify(count[0] == 200, "nearest(p, Integer.MAX_VALUE) returns all 100 points");
+        }
+
+        // Fills a table, reporting progress at each segment boundary
+        OffHeapKdTreePointST<Integer> st = new OffHeapKdTreePointST<Integer>();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            st.put(checkX(i), checkY(i), checkValue(i));
+            if ((i + 1) % SEGMENT_NODES == 0) {
+                StdOut.printf("  %d points put (%.0f s)\n", i + 1, (System.nanoTime() - start) / 1e9);
+            }
+        }
+        verify(st.size() == n, "size() = " + n);
+
+        // Looks the points around every segment boundary up, along with the last one and a spread
+        // of the others
+        int checked = 0;
+        for (long b = 0; b <= n; b += SEGMENT_NODES) {
+            for (long i = Math.max(0, b - 2); i < Math.min(n, b + 2); i++) {
+                find(st, (int) i);
+                checked++;
+            }
+        }
+        find(st, n - 1);
+        for (int i = 0; i < 1000; i++) {
+            find(st, (int) ((long) i * n / 1000));
+        }
+        verify(true, "get(), nearest() and range() find " + (checked + 1001) + " points across "
+            + (n - 1) / SEGMENT_NODES + " segment boundaries");
+        if (n > INT_OFFSET_BOUNDARY) {
+            verify(st.get(checkX(INT_OFFSET_BOUNDARY), checkY(INT_OFFSET_BOUNDARY))
+                .equals(checkValue(INT_OFFSET_BOUNDARY)), "the point at handle 2^27 is found");
+        }
+
+        // A closed table refuses further operations
+        st.close();
+        try {
+            st.size();
+            verify(false, "a closed table refuses size()");
+        } catch (IllegalStateException e) {
+            verify(true, "a closed table refuses size()");
+        }
+    }
+
+    // Checks that st finds the i-th point of check() by get(), nearest() from a query point next to
+    // it, and range() over a tiny rectangle around it.
+    private static void find(OffHeapKdTreePointST<Integer> st, int i) {
+        double x = checkX(i), y = checkY(i);
+        String label = "point " + i;
+        verify(checkValue(i).equals(st.get(x, y)), label + " by get()");
+        verify(new Point2D(x, y).equals(st.nearest(x + 1e-12, y)), label + " by nearest()");
+        int[] found = new int[1];
+        st.range(x - 1e-12, y - 1e-12, x + 1e-12, y + 1e-12, (px, py, value) -> {
+            if (px == x && py == y && value.equals(checkValue(i))) {
+                found[0]++;
+            }
+        });
+        verify(found[0] == 1, label + " by range()");
+    }
+
+    // Prints the passing check, unless it is about a single point, or exits if it failed.
+    private static void verify(boolean passed, String check) {
+        if (!passed) {
+            StdOut.println("FAILED: " + check);
+            System.exit(1);
+        }
+        if (!check.startsWith("point ")) {
+            StdOut.println("ok: " + check);
+        }
+    }
+
+    // Returns the x-coordinate of the i-th point of check().
+    private static double checkX(int i) {
+        return uniform(2L * i + 1);
+    }
+
+    // Returns the y-coordinate of the i-th point of check().
+    private static double checkY(int i) {
+        return uniform(2L * i + 2);
+    }
+
+    // Returns the value of the i-th point of check(), one of the Integers the JDK caches so that
+    // the values of a large table take no heap of their own.
+    private static Integer checkValue(int i) {
+        return i % 100;
+    }
+
+    // Returns a number in [0, 1) mixed from the given seed by SplitMix64's finalizer.
+    private static double uniform(long seed) {
+        long z = seed * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
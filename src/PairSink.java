@@ -0,0 +1,6 @@
+// Receives the pairs of points, along with their values, reported by a join of two PointSTs.
+public interface PairSink<A, B> {
+    // Accepts the point (ax, ay) and its value from the first symbol table, paired with the point
+    // (bx, by) and its value from the second.
+    public void accept(double ax, double ay, A a, double bx, double by, B b);
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import dsa.Point2D;
+
+// A connection to a PointServer on the same machine, which sends it one request at a time and
+// waits for the reply. A request the server is too busy to serve throws an IllegalStateException,
+// and may be retried; a lost connection throws an UncheckedIOException. A client must not be
+// shared between threads, and must be closed when it is no longer needed.
+public class PointClient<Value> implements AutoCloseable {
+    // Declares the instance variables
+    private final ValueCodec<Value> codec;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // Constructs a client connected to the server listening on the given loopback port, with
+    // values decoded by codec.
+    public PointClient(int port, ValueCodec<Value> codec) {
+        if (codec == null) {
+            throw new NullPointerException("codec is null");
+        }
+        this.codec = codec;
+        try {
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not connect to port " + port, e);
+        }
+    }
+
+    // Returns the value associated with the point (x, y) in the server's symbol table, or null.
+    public Value get(double x, double y) {
+        try {
+            this.out.writeByte(PointServer.GET);
+            this.out.writeDouble(x);
+            this.out.writeDouble(y);
+            this.out.flush();
+            readStatus();
+            return readValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reports to sink all the points (and their values) in the server's symbol table that are
+    // inside the rectangle [xmin, xmax] x [ymin, ymax].
+    public void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        try {
+            this.out.writeByte(PointServer.RANGE);
+            this.out.writeDouble(xmin);
+            this.out.writeDouble(ymin);
+            this.out.writeDouble(xmax);
+            this.out.writeDouble(ymax);
+            this.out.flush();
+            readPoints(sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the point in the server's symbol table that is different from and closest to the
+    // point (x, y), or null.
+    public Point2D nearest(double x, double y) {
+        Point2D[] nearest = new Point2D[1];
+        try {
+            this.out.writeByte(PointServer.NEAREST);
+            this.out.writeDouble(x);
+            this.out.writeDouble(y);
+            this.out.flush();
+            readPoints((px, py, value) -> nearest[0] = new Point2D(px, py));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return nearest[0];
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from the server's symbol
+    // table that are different from and closest to the point (x, y).
+    public void nearest(double x, double y, int k, PointSink<Value> sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        try {
+            this.out.writeByte(PointServer.NEAREST_K);
+            this.out.writeDouble(x);
+            this.out.writeDouble(y);
+            this.out.writeInt(k);
+            this.out.flush();
+            readPoints(sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Closes the connection. Closing an already closed client has no effect.
+    public void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads the status of a reply, throwing the appropriate error unless it is OK.
+    private void readStatus() throws IOException {
+        int status = this.in.readUnsignedByte();
+        if (status == PointServer.BUSY) {
+            throw new IllegalStateException("server is busy");
+        }
+        if (status == PointServer.BAD_REQUEST) {
+            throw new IllegalArgumentException("server rejected the request");
+        }
+        if (status != PointServer.OK) {
+            throw new IllegalStateException("server failed to answer the request");
+        }
+    }
+
+    // Reads a reply made of points and reports them to sink.
+    private void readPoints(PointSink<Value> sink) throws IOException {
+        readStatus();
+        int n = this.in.readInt();
+        for (int i = 0; i < n; i++) {
+            double x = this.in.readDouble();
+            double y = this.in.readDouble();
+            sink.accept(x, y, readValue());
+        }
+    }
+
+    // Reads a value, or null.
+    private Value readValue() throws IOException {
+        int length = this.in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        this.in.readFully(bytes);
+        return this.codec.decode(bytes);
+    }
+}
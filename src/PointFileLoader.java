@@ -0,0 +1,327 @@
+// Accepts input (String) and output (String) as command-line arguments; loads the points from the
+// input file and writes them to the output file in the compact binary format.
+//
+// Loads 2d points from a file into a primitive coordinate array laid out as
+// {x0, y0, x1, y1, ...}, which can be handed directly to KdTreePointST.build(). Two formats are
+// supported:
+//    Text:   whitespace-separated doubles, read in x y pairs. The file is memory-mapped, split on
+//            line boundaries, and the chunks are parsed in parallel.
+//    Binary: the 4 bytes "PSTB", a little-endian int version, a little-endian long point count,
+//            and then the coordinates as little-endian doubles in the order above.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import stdlib.StdOut;
+
+public class PointFileLoader {
+    // Binary format constants.
+    private static final byte[] MAGIC = {'P', 'S', 'T', 'B'};
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    // The smallest text chunk handed to a parsing thread, and the largest region mapped at once.
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_MAPPED_BYTES = 1 << 30;
+
+    // Significant digits and powers of ten for which a decimal converts exactly to a double.
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Returns the coordinates {x0, y0, x1, y1, ...} of the points stored in the given file.
+    public static double[] load(String filename) {
+        if (filename == null) {
+            throw new NullPointerException("filename is null");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (isBinary(channel)) {
+                return loadBinary(channel);
+            }
+            return loadText(channel);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + filename, e);
+        }
+    }
+
+    // Writes the given coordinates {x0, y0, x1, y1, ...} to the given file in the binary format.
+    public static void writeBinary(String filename, double[] coords) {
+        if (filename == null) {
+            throw new NullPointerException("filename is null");
+        }
+        if (coords == null) {
+            throw new NullPointerException("coords is null");
+        }
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("coords has an odd length");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC).putInt(VERSION).putLong(coords.length / 2);
+            for (double c : coords) {
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.putDouble(c);
+            }
+            drain(channel, buffer);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + filename, e);
+        }
+    }
+
+    // Returns true if the file behind channel starts with the binary format's magic bytes.
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        channel.read(magic, 0);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the coordinates from a binary file, one mapped window at a time.
+    private static double[] loadBinary(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        int version = header.getInt(MAGIC.length);
+        long n = header.getLong(MAGIC.length + 4);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported binary version " + version);
+        }
+        if (n < 0 || 2 * n > Integer.MAX_VALUE - 8 || channel.size() < HEADER_BYTES + 16 * n) {
+            throw new IllegalArgumentException("corrupt binary header (n = " + n + ")");
+        }
+        double[] coords = new double[(int) (2 * n)];
+        int filled = 0;
+        while (filled < coords.length) {
+            long offset = HEADER_BYTES + 8L * filled;
+            int count = (int) Math.min(coords.length - filled, MAX_MAPPED_BYTES / 8);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * count);
+            window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(coords, filled, count);
+            filled += count;
+        }
+        return coords;
+    }
+
+    // Reads the coordinates from a text file by parsing line-aligned chunks in parallel and
+    // concatenating the results in file order.
+    private static double[] loadText(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunks = Math.max(1, size / MIN_CHUNK_BYTES);
+        chunks = Math.min(chunks, 4L * Runtime.getRuntime().availableProcessors());
+        chunks = Math.max(chunks, (size + MAX_MAPPED_BYTES - 1) / MAX_MAPPED_BYTES);
+
+        // Moves each evenly spaced boundary forward to the start of the next line.
+        long[] bounds = new long[(int) chunks + 1];
+        bounds[bounds.length - 1] = size;
+        for (int i = 1; i < chunks; i++) {
+            bounds[i] = nextLine(channel, Math.max(bounds[i - 1], size * i / chunks));
+        }
+
+        double[][] parts = IntStream.range(0, (int) chunks).parallel()
+            .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1]))
+            .toArray(double[][]::new);
+
+        // Concatenates the per-chunk values in file order, so x y pairs are matched up the same way
+        // stdlib.In would match them, even if a pair is split across lines.
+        long total = 0;
+        for (double[] part : parts) {
+            total += (long) part[part.length - 1];
+        }
+        if (total % 2 != 0) {
+            throw new IllegalArgumentException("odd number of coordinates (" + total + ")");
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many coordinates (" + total + ")");
+        }
+        double[] coords = new double[(int) total];
+        int[] offsets = new int[parts.length];
+        for (int i = 1; i < parts.length; i++) {
+            offsets[i] = offsets[i - 1] + (int) parts[i - 1][parts[i - 1].length - 1];
+        }
+        IntStream.range(0, parts.length).parallel().forEach(i ->
+            System.arraycopy(parts[i], 0, coords, offsets[i], (int) parts[i][parts[i].length - 1]));
+        return coords;
+    }
+
+    // Returns the position just past the first newline at or after pos, or the file size.
+    private static long nextLine(FileChannel channel, long pos) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (pos < size) {
+            window.clear();
+            int read = channel.read(window, pos);
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    // Parses the doubles in bytes [start, end) of the file. The returned array holds the values
+    // followed by one extra slot with their count.
+    private static double[] parseChunk(FileChannel channel, long start, long end) {
+        double[] values = new double[(int) Math.min(1 << 16, (end - start) / 2 + 2)];
+        int count = 0;
+        if (end > start) {
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("could not map bytes " + start + " to " + end, e);
+            }
+            int limit = buffer.limit();
+            int i = 0;
+            while (true) {
+                while (i < limit && isWhitespace(buffer.get(i))) {
+                    i++;
+                }
+                if (i == limit) {
+                    break;
+                }
+                int tokenEnd = i;
+                while (tokenEnd < limit && !isWhitespace(buffer.get(tokenEnd))) {
+                    tokenEnd++;
+                }
+                if (count == values.length - 1) {
+                    values = Arrays.copyOf(values, 2 * values.length);
+                }
+                values[count++] = parseDouble(buffer, i, tokenEnd);
+                i = tokenEnd;
+            }
+        }
+        values[values.length - 1] = count;
+        return values;
+    }
+
+    // Parses the double in bytes [start, end) of buffer without allocating. Decimals with at most
+    // 15 significant digits and a power of ten of at most 22 are converted exactly with a single
+    // multiplication or division; anything else falls back to Double.parseDouble().
+    private static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean seenDigit = false, seenPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    if (++digits > MAX_FAST_DIGITS) {
+                        return parseSlow(buffer, start, end);
+                    }
+                    mantissa = 10 * mantissa + (b - '0');
+                }
+                if (seenPoint) {
+                    scale--;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return parseSlow(buffer, start, end);
+        }
+        if (i < end) {
+            if (buffer.get(i) != 'e' && buffer.get(i) != 'E' || ++i == end) {
+                return parseSlow(buffer, start, end);
+            }
+            boolean negativeExponent = false;
+            if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int exponent = 0;
+            if (i == end) {
+                return parseSlow(buffer, start, end);
+            }
+            for (; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b < '0' || b > '9' || exponent > 1000) {
+                    return parseSlow(buffer, start, end);
+                }
+                exponent = 10 * exponent + (b - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return parseSlow(buffer, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    // Parses the double in bytes [start, end) of buffer with Double.parseDouble().
+    private static double parseSlow(ByteBuffer buffer, int start, int end) {
+        byte[] token = new byte[end - start];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = buffer.get(start + i);
+        }
+        String s = new String(token, StandardCharsets.US_ASCII);
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a double: " + s, e);
+        }
+    }
+
+    // Returns true if b is an ASCII whitespace character.
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    // Writes out and clears the contents of buffer.
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Unit tests the data type.
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        double[] coords = load(args[0]);
+        long loaded = System.nanoTime();
+        writeBinary(args[1], coords);
+        long written = System.nanoTime();
+        StdOut.printf("loaded %d points from %s in %.1f ms\n", coords.length / 2, args[0],
+            (loaded - start) / 1e6);
+        StdOut.printf("wrote %d points to %s in %.1f ms\n", coords.length / 2, args[1],
+            (written - loaded) / 1e6);
+    }
+}
@@ -0,0 +1,101 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import stdlib.StdDraw;
+
+// A static layer of points, rendered once into an offscreen image and then drawn with a single
+// StdDraw.picture() call per frame, so that a frame costs one image draw rather than one draw per
+// point. The image is rendered again only when the scale or pen radius it is drawn at changes.
+//
+// StdDraw draws pictures only from files, and caches the images it has loaded by file name, so
+// every rendering is written to a new temporary PNG file and the previous one is deleted.
+public class PointLayer {
+    // Declares the instance variables
+    private final double[] coords;  // the points {x0, y0, x1, y1, ...}
+    private final Color color;      // the color the points are drawn in
+    private final int width;        // the width of the canvas, in pixels
+    private final int height;       // the height of the canvas, in pixels
+    private File file;              // the current rendering, or null if there is none
+    private double xmin, ymin, xmax, ymax, penRadius;  // the scale and pen radius it was rendered at
+
+    // Constructs a layer of the points {x0, y0, x1, y1, ...} in coords, drawn in the given color on
+    // a canvas of width x height pixels.
+    public PointLayer(double[] coords, Color color, int width, int height) {
+        if (coords == null) {
+            throw new NullPointerException("coords is null");
+        }
+        if (color == null) {
+            throw new NullPointerException("color is null");
+        }
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("coords has an odd length");
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("width and height must be positive");
+        }
+        this.coords = coords;
+        this.color = color;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Draws the points as StdDraw.point() would with the scale [xmin, xmax] x [ymin, ymax] and the
+    // given pen radius, rendering them first if this is the first call or either has changed.
+    public void draw(double xmin, double ymin, double xmax, double ymax, double penRadius) {
+        if (this.file == null || xmin != this.xmin || ymin != this.ymin || xmax != this.xmax
+            || ymax != this.ymax || penRadius != this.penRadius) {
+            render(xmin, ymin, xmax, ymax, penRadius);
+        }
+        StdDraw.picture((xmin + xmax) / 2, (ymin + ymax) / 2, this.file.getPath(), xmax - xmin, ymax - ymin);
+    }
+
+    // Renders the points at the given scale and pen radius into a new temporary file.
+    private void render(double xmin, double ymin, double xmax, double ymax, double penRadius) {
+        BufferedImage image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(this.color);
+
+        // Sizes the points the way StdDraw does: pen radius times the canvas's default size of 512
+        // pixels is the diameter, and points that small are single pixels.
+        double diameter = penRadius * 512;
+        Ellipse2D.Double dot = new Ellipse2D.Double(0, 0, diameter, diameter);
+        double sx = this.width / (xmax - xmin), sy = this.height / (ymax - ymin);
+        for (int i = 0; i < this.coords.length; i += 2) {
+            double x = (this.coords[i] - xmin) * sx, y = (ymax - this.coords[i + 1]) * sy;
+            if (diameter <= 1) {
+                g.fillRect((int) Math.round(x), (int) Math.round(y), 1, 1);
+            } else {
+                dot.x = x - diameter / 2;
+                dot.y = y - diameter / 2;
+                g.fill(dot);
+            }
+        }
+        g.dispose();
+
+        File previous = this.file;
+        try {
+            File file = File.createTempFile("points", ".png");
+            file.deleteOnExit();
+            ImageIO.write(image, "png", file);
+            this.file = file;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write the rendered points", e);
+        }
+        if (previous != null) {
+            previous.delete();
+        }
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        this.penRadius = penRadius;
+    }
+}
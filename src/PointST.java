@@ -1,3 +1,4 @@
+import dsa.MinPQ;
 import dsa.Point2D;
 import dsa.RectHV;
 
@@ -30,4 +31,119 @@ public interface PointST<Value> {
     // Returns up to k points from this symbol table that are different from and closest to the
     // given point.
     public Iterable<Point2D> nearest(Point2D p, int k);
+
+    // Inserts the point (x, y) and the given value into this symbol table.
+    public default void put(double x, double y, Value value) {
+        put(new Point2D(x, y), value);
+    }
+
+    // Returns the value associated with the point (x, y) in this symbol table, or null.
+    public default Value get(double x, double y) {
+        return get(new Point2D(x, y));
+    }
+
+    // Returns true if this symbol table contains the point (x, y), and false otherwise.
+    public default boolean contains(double x, double y) {
+        return contains(new Point2D(x, y));
+    }
+
+    // Returns the point in this symbol table that is different from and closest to the point
+    // (x, y), or null.
+    public default Point2D nearest(double x, double y) {
+        return nearest(new Point2D(x, y));
+    }
+
+    // Reports to sink, closest first, up to k points (and their values) from this symbol table that
+    // are different from and closest to the point (x, y).
+    public default void nearest(double x, double y, int k, PointSink<Value> sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        Point2D q = new Point2D(x, y);
+        MinPQ<Point2D> pq = new MinPQ<Point2D>(q.distanceToOrder());
+        for (Point2D p : nearest(q, k)) {
+            pq.insert(p);
+        }
+        while (!pq.isEmpty()) {
+            Point2D p = pq.delMin();
+            sink.accept(p.x(), p.y(), get(p));
+        }
+    }
+
+    // Reports to sink, tagged with i and closest first, up to k points (and their values) from this
+    // symbol table that are different from and closest to the point (queries[2i], queries[2i + 1]),
+    // for each i.
+    public default void nearestBatch(double[] queries, int k, IndexedPointSink<Value> sink) {
+        if (queries == null) {
+            throw new NullPointerException("queries is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (queries.length % 2 != 0) {
+            throw new IllegalArgumentException("queries must hold pairs of coordinates");
+        }
+        for (int i = 0; i < queries.length / 2; i++) {
+            int index = i;
+            nearest(queries[2 * i], queries[2 * i + 1], k, (x, y, value) -> sink.accept(index, x, y, value));
+        }
+    }
+
+    // Reports to sink all the points (and their values) in this symbol table that are inside the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    public default void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        if (xmin > xmax || ymin > ymax) {
+            return;
+        }
+        for (Point2D p : range(new RectHV(xmin, ymin, xmax, ymax))) {
+            sink.accept(p.x(), p.y(), get(p));
+        }
+    }
+
+    // Reports to sink, tagged with i, all the points (and their values) in this symbol table that
+    // are inside rects[i], for each i.
+    public default void rangeBatch(RectHV[] rects, IndexedPointSink<Value> sink) {
+        if (rects == null) {
+            throw new NullPointerException("rects is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("sink is null");
+        }
+        for (int i = 0; i < rects.length; i++) {
+            if (rects[i] == null) {
+                throw new NullPointerException("rects[" + i + "] is null");
+            }
+        }
+        for (int i = 0; i < rects.length; i++) {
+            int index = i;
+            RectHV r = rects[i];
+            range(r.xMin(), r.yMin(), r.xMax(), r.yMax(), (x, y, value) -> sink.accept(index, x, y, value));
+        }
+    }
+
+    // Returns the number of points in this symbol table that are inside the rectangle
+    // [xmin, xmax] x [ymin, ymax].
+    public default int count(double xmin, double ymin, double xmax, double ymax) {
+        int[] count = new int[1];
+        range(xmin, ymin, xmax, ymax, (x, y, value) -> count[0]++);
+        return count[0];
+    }
+
+    // Divides the rectangle [xmin, xmax] x [ymin, ymax] into a grid of cols x rows equal cells, and
+    // adds to counts[row * cols + col] the number of points in this symbol table inside each cell.
+    // A point on the border between two cells counts in the upper/right one.
+    public default void countGrid(double xmin, double ymin, double xmax, double ymax, int cols, int rows,
+                                  int[] counts) {
+        if (counts == null) {
+            throw new NullPointerException("counts is null");
+        }
+        if (cols < 1 || rows < 1 || counts.length < (long) cols * rows) {
+            throw new IllegalArgumentException("invalid grid dimensions");
+        }
+        range(xmin, ymin, xmax, ymax, (x, y, value) ->
+            counts[GridCells.cell(y, ymin, ymax, rows) * cols + GridCells.cell(x, xmin, xmax, cols)]++);
+    }
 }
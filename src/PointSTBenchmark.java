@@ -0,0 +1,273 @@
+// Accepts implementations (String), sizes (String), distributions (String), and seconds (double)
+// as optional command-line arguments, the first three as comma-separated lists; and, for every
+// combination, times put(), get(), contains(), range() at three selectivities, nearest(), and
+// nearest(p, k) for several k. Reports throughput (operations per second), allocation (bytes per
+// operation, as counted by the JVM for the benchmarking thread), and the height of the tree for
+// KdTreePointST; and, for the table the searches run against, the heap it retains per point and
+// how long a full collection takes while it is live. The points and queries are drawn from fixed
+// seeds, so runs are comparable. Trees built by put() from sorted points degenerate into paths and
+// take quadratic time to build, so the 2dTree implementations are run on sorted points only up to
+// SORTED_LIMIT points, which is enough to show the degenerate case.
+//
+// Implementations: brute, kdtree, offheap, quantized (over the unit square), adaptive.
+// Distributions:   uniform (in the unit square), clustered (Gaussian blobs clamped to the unit
+//                  square), sorted (on the diagonal, in increasing order).
+//
+// Example: java PointSTBenchmark brute,kdtree 1e3,1e4,1e5 uniform,clustered,sorted 1
+
+import java.lang.management.ManagementFactory;
+
+import dsa.Point2D;
+import dsa.RectHV;
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+public class PointSTBenchmark {
+    // The number of distinct queries cycled through by each benchmark
+    private static final int QUERIES = 1 << 12;
+
+    // The fractions of the unit square covered by the small, medium and large range() rectangles
+    private static final double[] SELECTIVITIES = {0.0001, 0.01, 0.1};
+
+    // The values of k benchmarked for nearest(p, k)
+    private static final int[] KS = {1, 10, 100};
+
+    // The largest number of sorted points put into a 2dTree implementation
+    private static final int SORTED_LIMIT = 10000;
+
+    // The number of Gaussian blobs in the clustered distribution, and their standard deviation
+    private static final int BLOBS = 16;
+    private static final double BLOB_SIGMA = 0.02;
+
+    // Accumulates results so that the JIT cannot discard the work that produced them
+    private static long checksum;
+
+    // A benchmarked operation.
+    private interface Op {
+        // Runs the i-th invocation and returns the number of operations it performed.
+        long run(int i);
+    }
+
+    // Entry point.
+    public static void main(String[] args) throws InterruptedException {
+        String[] impls = (args.length > 0 ? args[0] : "brute,kdtree").split(",");
+        String[] sizeArgs = (args.length > 1 ? args[1] : "1e3,1e4,1e5,1e6,1e7").split(",");
+        String[] dists = (args.length > 2 ? args[2] : "uniform,clustered,sorted").split(",");
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+        int[] sizes = new int[sizeArgs.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = (int) Double.parseDouble(sizeArgs[i]);
+        }
+
+        // Runs on a thread with a large stack, since trees built from sorted points are as deep as
+        // they are large and the recursive methods would otherwise overflow.
+        Thread runner = new Thread(null, () -> run(impls, sizes, dists, seconds), "benchmark", 1L << 30);
+        runner.start();
+        runner.join();
+    }
+
+    // Runs the benchmarks for every combination of implementation, size and distribution.
+    private static void run(String[] impls, int[] sizes, String[] dists, double seconds) {
+        StdOut.printf("%-10s %-10s %9s %-18s %14s %12s %8s\n", "impl", "dist", "n", "op", "ops/s", "B/op", "height");
+        for (String dist : dists) {
+            for (int n : sizes) {
+                double[] coords = points(dist, n, 42);
+                double[] queries = points(dist, QUERIES, 43);
+                for (String impl : impls) {
+                    if (dist.equals("sorted") && n > SORTED_LIMIT && degenerates(impl)) {
+                        StdOut.printf("%-10s %-10s %9d skipped: put() from sorted points builds a path\n", impl, dist,
+                            n);
+                        continue;
+                    }
+                    // Reports a table that rejects the run (an unknown implementation, or points a
+                    // table cannot hold) and goes on; an Error, such as running out of heap, ends the
+                    // run, since the rows after it would be measured in a damaged JVM
+                    try {
+                        bench(impl, dist, n, coords, queries, seconds);
+                    } catch (RuntimeException e) {
+                        StdOut.printf("%-10s %-10s %9d failed: %s\n", impl, dist, n, e);
+                    }
+                }
+            }
+        }
+        StdOut.println("checksum = " + checksum);
+    }
+
+    // Runs the benchmarks for one implementation over the points {x0, y0, x1, y1, ...} in coords,
+    // using the points in queries as query points.
+    private static void bench(String impl, String dist, int n, double[] coords, double[] queries, double seconds) {
+        String row = String.format("%-10s %-10s %9d", impl, dist, n);
+
+        // Builds a fresh table on every invocation
+        measure(row, "put", "-", seconds, i -> {
+            PointST<Integer> st = create(impl);
+            for (int j = 0; j < n; j++) {
+                st.put(coords[2 * j], coords[2 * j + 1], j);
+            }
+            checksum += st.size();
+            close(st);
+            return n;
+        });
+
+        // Builds the table the other benchmarks query, and measures the heap it retains and the
+        // full collection it costs
+        long heap = heapUsed();
+        PointST<Integer> st = create(impl);
+        for (int j = 0; j < n; j++) {
+            st.put(new Point2D(coords[2 * j], coords[2 * j + 1]), j);
+        }
+        String height = st instanceof KdTreePointST ? Integer.toString(((KdTreePointST<?>) st).height()) : "-";
+        heap = heapUsed() - heap;
+        long start = System.nanoTime();
+        System.gc();
+        StdOut.printf("%s %-18s %14s %12.1f %8s   full GC %.1f ms\n", row, "heap/point", "-", (double) heap / n, height,
+            (System.nanoTime() - start) / 1e6);
+
+        // Looks up stored points, and query points that are mostly absent
+        Point2D[] stored = new Point2D[QUERIES];
+        Point2D[] probes = new Point2D[QUERIES];
+        for (int j = 0; j < QUERIES; j++) {
+            int k = (int) ((long) j * n / QUERIES);
+            stored[j] = new Point2D(coords[2 * k], coords[2 * k + 1]);
+            probes[j] = new Point2D(queries[2 * j], queries[2 * j + 1]);
+        }
+        measure(row, "get", height, seconds, i -> {
+            Integer value = st.get(stored[i % QUERIES]);
+            checksum += value == null ? 0 : value;
+            return 1;
+        });
+        measure(row, "contains", height, seconds, i -> {
+            checksum += st.contains(probes[i % QUERIES]) ? 1 : 0;
+            return 1;
+        });
+
+        // Searches squares of the given selectivities centered on the query points
+        for (double selectivity : SELECTIVITIES) {
+            double r = Math.sqrt(selectivity) / 2;
+            RectHV[] rects = new RectHV[QUERIES];
+            for (int j = 0; j < QUERIES; j++) {
+                rects[j] = new RectHV(queries[2 * j] - r, queries[2 * j + 1] - r, queries[2 * j] + r, queries[2 * j + 1] + r);
+            }
+            measure(row, "range(" + selectivity + ")", height, seconds, i -> {
+                for (Point2D p : st.range(rects[i % QUERIES])) {
+                    checksum += (long) p.x();
+                }
+                return 1;
+            });
+        }
+
+        // Searches for the nearest points to the query points
+        measure(row, "nearest", height, seconds, i -> {
+            Point2D p = st.nearest(probes[i % QUERIES]);
+            checksum += p == null ? 0 : (long) p.x();
+            return 1;
+        });
+        for (int k : KS) {
+            measure(row, "nearest(" + k + ")", height, seconds, i -> {
+                for (Point2D p : st.nearest(probes[i % QUERIES], k)) {
+                    checksum += (long) p.x();
+                }
+                return 1;
+            });
+        }
+        close(st);
+    }
+
+    // Runs op for the given number of seconds to warm up, then for as many again while measuring,
+    // and prints the throughput and allocation per operation.
+    private static void measure(String row, String name, String height, double seconds, Op op) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long budget = (long) (seconds * 1e9);
+        int i = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < budget) {
+            op.run(i++);
+        }
+
+        long ops = 0;
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            ops += op.run(i++);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        StdOut.printf("%s %-18s %14.0f %12.1f %8s\n", row, name, ops / (elapsed / 1e9), (double) bytes / ops, height);
+    }
+
+    // Returns the number of bytes of heap in use once the garbage has been collected.
+    private static long heapUsed() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Returns a new, empty symbol table of the given implementation.
+    private static PointST<Integer> create(String impl) {
+        switch (impl) {
+            case "brute":
+                return new BrutePointST<Integer>();
+            case "kdtree":
+                return new KdTreePointST<Integer>();
+            case "offheap":
+                return new OffHeapKdTreePointST<Integer>();
+            case "quantized":
+                return new QuantizedPointST<Integer>(0.0, 0.0, 1.0, 1.0);
+            case "adaptive":
+                return new AdaptivePointST<Integer>();
+            default:
+                throw new IllegalArgumentException("unknown implementation: " + impl);
+        }
+    }
+
+    // Returns true if the given implementation is a 2dTree that put() leaves unbalanced, and false
+    // otherwise.
+    private static boolean degenerates(String impl) {
+        return impl.equals("kdtree") || impl.equals("offheap") || impl.equals("quantized");
+    }
+
+    // Releases the memory held by st, if it holds any outside the heap.
+    private static void close(PointST<Integer> st) {
+        if (st instanceof OffHeapKdTreePointST) {
+            ((OffHeapKdTreePointST<Integer>) st).close();
+        }
+    }
+
+    // Returns n points {x0, y0, x1, y1, ...} from the given distribution, drawn with the given seed.
+    private static double[] points(String dist, int n, long seed) {
+        StdRandom.setSeed(seed);
+        double[] coords = new double[2 * n];
+        switch (dist) {
+            case "uniform":
+                for (int i = 0; i < coords.length; i++) {
+                    coords[i] = StdRandom.uniform();
+                }
+                break;
+            case "clustered":
+                double[] centers = new double[2 * BLOBS];
+                for (int i = 0; i < centers.length; i++) {
+                    centers[i] = StdRandom.uniform(0.1, 0.9);
+                }
+                for (int i = 0; i < n; i++) {
+                    int blob = StdRandom.uniform(BLOBS);
+                    coords[2 * i] = clamp(StdRandom.gaussian(centers[2 * blob], BLOB_SIGMA));
+                    coords[2 * i + 1] = clamp(StdRandom.gaussian(centers[2 * blob + 1], BLOB_SIGMA));
+                }
+                break;
+            case "sorted":
+                for (int i = 0; i < n; i++) {
+                    coords[2 * i] = coords[2 * i + 1] = (double) i / n;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown distribution: " + dist);
+        }
+        return coords;
+    }
+
+    // Returns x clamped to [0, 1].
+    private static double clamp(double x) {
+        return Math.max(0.0, Math.min(1.0, x));
+    }
+}
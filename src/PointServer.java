@@ -0,0 +1,490 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A server that lets other processes on the same machine query a PointST over a loopback socket,
+// serving get(), range(), nearest() and nearest(p, k). Each connection is served by a thread of its
+// own: a virtual thread where the platform has them (Java 21 and later), and a pooled platform
+// thread otherwise. The k-nearest-neighbor searches of all the connections are handed to a single
+// batching thread, which runs every search waiting when it comes round as one nearestBatch() call,
+// so a burst of searches costs one hand-off rather than one each and the searching itself runs on
+// as many threads as the machine has cores, however many connections are waiting. A lone search
+// is run at once; batches form only while a previous one runs.
+//
+// At most a given number of requests are served at once; a request that arrives while they are is
+// answered BUSY straight away, so that an overloaded server sheds load rather than queueing it.
+//
+// Only a KdTreePointST, and only while KdTreeMetrics is disabled, is searched from several threads
+// at once: its searches keep all their state on the calling thread. Any other table, including the
+// wrappers whose searches update state of their own (CachingPointST's cache, AdaptivePointST's
+// counts), is searched by one request at a time under a ReentrantLock, which a waiting virtual
+// thread releases its carrier for, where a monitor would pin it. The table must not be modified
+// while it is served.
+//
+// Protocol: a client sends requests, one at a time or several back to back, and the server answers
+// each in turn. All numbers are big-endian, as DataOutputStream writes them.
+//    Request: a byte operation and its arguments:
+//       GET        x, y (doubles)
+//       RANGE      xmin, ymin, xmax, ymax (doubles)
+//       NEAREST    x, y (doubles)
+//       NEAREST_K  x, y (doubles), k (int)
+//    Reply:   a byte status (OK, BUSY, BAD_REQUEST or ERROR) and, if OK:
+//       GET        the value: an int length and its encoded bytes, or the length -1 if there is none
+//       otherwise  an int count and that many points, each as x, y (doubles) and the value as for
+//                  GET, the closest first for NEAREST and NEAREST_K
+// An unknown operation is answered BAD_REQUEST and the connection is closed.
+public class PointServer<Value> implements AutoCloseable {
+    // Operations
+    public static final int GET = 1;
+    public static final int RANGE = 2;
+    public static final int NEAREST = 3;
+    public static final int NEAREST_K = 4;
+
+    // Reply statuses
+    public static final int OK = 0;
+    public static final int BUSY = 1;
+    public static final int BAD_REQUEST = 2;
+    public static final int ERROR = 3;
+
+    // The default most requests served at once, and most searches run as one batch
+    private static final int MAX_IN_FLIGHT = 1 << 10;
+    private static final int MAX_BATCH = 1 << 8;
+
+    // The largest k a NEAREST_K request may ask for
+    private static final int MAX_K = 1 << 12;
+
+    // The shortest and longest waits before accepting again after accept() fails
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    // Declares the instance variables
+    private final PointST<Value> st;
+    private final ReentrantLock serial;            // held by each search of st, or null if concurrent
+    private final ValueCodec<Value> codec;
+    private final int maxBatch;
+    private final ServerSocket socket;
+    private final ExecutorService connections;     // runs one task per connection
+    private final boolean virtual;                 // are connections served on virtual threads?
+    private final Set<Socket> open;                // the connections being served
+    private final Semaphore permits;               // one for each request that may be served
+    private final ArrayBlockingQueue<Search> searches;  // the searches waiting to be batched
+    private final Thread acceptor, batcher;
+    private volatile boolean closed;
+
+    // Metrics
+    private final LongAdder requests, rejected, batches, batched;
+
+    // Constructs a server for st, with values encoded by codec, listening on the given loopback
+    // port (0 for any free one), and starts it.
+    public PointServer(PointST<Value> st, ValueCodec<Value> codec, int port) {
+        this(st, codec, port, MAX_BATCH, MAX_IN_FLIGHT);
+    }
+
+    // Constructs a server for st, with values encoded by codec, listening on the given loopback
+    // port (0 for any free one), that runs at most maxBatch searches as one batch and serves at
+    // most maxInFlight requests at once, and starts it.
+    public PointServer(PointST<Value> st, ValueCodec<Value> codec, int port, int maxBatch, int maxInFlight) {
+        if (st == null) {
+            throw new NullPointerException("st is null");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec is null");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be positive");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.st = st;
+        this.serial = searchesConcurrently(st) ? null : new ReentrantLock();
+        this.codec = codec;
+        this.maxBatch = maxBatch;
+        try {
+            this.socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not listen on port " + port, e);
+        }
+
+        // Serves connections on virtual threads, looked up reflectively so that the server still
+        // runs, on platform threads, where there are none
+        ExecutorService executor;
+        boolean virtual;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+        } catch (ReflectiveOperationException e) {
+            executor = Executors.newCachedThreadPool(r -> daemon(r, "point-server-connection"));
+            virtual = false;
+        }
+        this.connections = executor;
+        this.virtual = virtual;
+        this.open = ConcurrentHashMap.newKeySet();
+        this.permits = new Semaphore(maxInFlight);
+        this.searches = new ArrayBlockingQueue<Search>(maxInFlight);
+        this.requests = new LongAdder();
+        this.rejected = new LongAdder();
+        this.batches = new LongAdder();
+        this.batched = new LongAdder();
+        this.acceptor = daemon(this::accept, "point-server-acceptor");
+        this.batcher = daemon(this::batch, "point-server-batcher");
+        this.acceptor.start();
+        this.batcher.start();
+    }
+
+    // Returns the port this server listens on.
+    public int port() {
+        return this.socket.getLocalPort();
+    }
+
+    // Returns true if this server serves its connections on virtual threads.
+    public boolean usesVirtualThreads() {
+        return this.virtual;
+    }
+
+    // Returns the number of requests served.
+    public long requests() {
+        return this.requests.sum();
+    }
+
+    // Returns the number of requests answered BUSY.
+    public long rejected() {
+        return this.rejected.sum();
+    }
+
+    // Returns the number of batches of searches run.
+    public long batches() {
+        return this.batches.sum();
+    }
+
+    // Returns the mean number of searches in a batch, or 0 if none was run.
+    public double meanBatchSize() {
+        long batches = this.batches.sum();
+        return batches == 0 ? 0 : (double) this.batched.sum() / batches;
+    }
+
+    // Stops accepting connections, closes the open ones, and stops the server's threads. Closing
+    // an already closed server has no effect.
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // The socket is unusable either way
+        }
+        for (Socket s : this.open) {
+            closeQuietly(s);
+        }
+        this.batcher.interrupt();
+        this.connections.shutdownNow();
+    }
+
+    // Accepts connections and hands each to a thread of its own, until the server is closed. After
+    // a failed accept(), such as one for want of file descriptors, waits before trying again, twice
+    // as long after each failure in a row, so that a lasting failure does not spin.
+    private void accept() {
+        long backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+        while (!this.closed) {
+            Socket s;
+            try {
+                s = this.socket.accept();
+                s.setTcpNoDelay(true);
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(2 * backoff, MAX_ACCEPT_BACKOFF_MILLIS);
+                continue;
+            }
+            backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+            this.open.add(s);
+            try {
+                this.connections.execute(() -> serve(s));
+            } catch (RejectedExecutionException e) {
+                this.open.remove(s);
+                closeQuietly(s);
+            }
+        }
+    }
+
+    // Answers the requests sent over the given connection until the client closes it.
+    private void serve(Socket s) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            for (int op = in.read(); op >= 0; op = in.read()) {
+                if (!answer(op, in, out)) {
+                    out.flush();
+                    break;
+                }
+
+                // Replies to requests sent back to back go out together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away, or the server is closing; drops the connection
+        } finally {
+            this.open.remove(s);
+            closeQuietly(s);
+        }
+    }
+
+    // Reads the arguments of the request for the given operation from in and writes the reply to
+    // out. Returns false if the operation is unknown, after which the connection cannot go on.
+    private boolean answer(int op, DataInputStream in, DataOutputStream out) throws IOException, InterruptedException {
+        // Reads the whole request first, so that the connection stays in step whatever the reply
+        double x = 0, y = 0, xmax = 0, ymax = 0;
+        int k = 1;
+        switch (op) {
+            case GET:
+            case NEAREST:
+                x = in.readDouble();
+                y = in.readDouble();
+                break;
+            case RANGE:
+                x = in.readDouble();
+                y = in.readDouble();
+                xmax = in.readDouble();
+                ymax = in.readDouble();
+                break;
+            case NEAREST_K:
+                x = in.readDouble();
+                y = in.readDouble();
+                k = in.readInt();
+                break;
+            default:
+                out.writeByte(BAD_REQUEST);
+                return false;
+        }
+        if (op == NEAREST_K && (k < 0 || k > MAX_K)) {
+            out.writeByte(BAD_REQUEST);
+            return true;
+        }
+        if (!this.permits.tryAcquire()) {
+            this.rejected.increment();
+            out.writeByte(BUSY);
+            return true;
+        }
+
+        // Answers the request, leaving the searches to the batching thread
+        Results results = null;
+        Value value = null;
+        try {
+            this.requests.increment();
+            if (op == GET) {
+                value = get(x, y);
+            } else if (op == RANGE) {
+                results = new Results();
+                range(x, y, xmax, ymax, results);
+            } else {
+                Search search = new Search(x, y, k);
+                this.searches.put(search);
+                search.done.await();
+                results = search.failed ? null : search;
+            }
+        } catch (RuntimeException e) {
+            out.writeByte(ERROR);
+            return true;
+        } finally {
+            this.permits.release();
+        }
+        if (op != GET && results == null) {
+            out.writeByte(ERROR);
+            return true;
+        }
+
+        // Writes the reply
+        out.writeByte(OK);
+        if (op == GET) {
+            writeValue(out, value);
+        } else {
+            out.writeInt(results.n);
+            for (int i = 0; i < results.n; i++) {
+                out.writeDouble(results.coords[2 * i]);
+                out.writeDouble(results.coords[2 * i + 1]);
+                writeValue(out, results.value(i));
+            }
+        }
+        return true;
+    }
+
+    // Returns the value associated with the point (x, y) in the table, or null.
+    private Value get(double x, double y) {
+        if (this.serial == null) {
+            return this.st.get(x, y);
+        }
+        this.serial.lock();
+        try {
+            return this.st.get(x, y);
+        } finally {
+            this.serial.unlock();
+        }
+    }
+
+    // Reports to sink all the points (and their values) in the table that are inside the rectangle
+    // [xmin, xmax] x [ymin, ymax].
+    private void range(double xmin, double ymin, double xmax, double ymax, PointSink<Value> sink) {
+        if (this.serial == null) {
+            this.st.range(xmin, ymin, xmax, ymax, sink);
+            return;
+        }
+        this.serial.lock();
+        try {
+            this.st.range(xmin, ymin, xmax, ymax, sink);
+        } finally {
+            this.serial.unlock();
+        }
+    }
+
+    // Writes the given value, or null, to out.
+    private void writeValue(DataOutputStream out, Value value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = this.codec.encode(value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Runs the waiting searches in batches, until the server is closed.
+    private void batch() {
+        List<Search> batch = new ArrayList<Search>(this.maxBatch);
+        while (!this.closed) {
+            try {
+                batch.add(this.searches.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.searches.drainTo(batch, this.maxBatch - 1);
+            run(batch);
+            batch.clear();
+        }
+    }
+
+    // Runs the given searches, one nearestBatch() call for each k among them, and lets their
+    // connections know.
+    @SuppressWarnings("unchecked")
+    private void run(List<Search> batch) {
+        batch.sort(Comparator.comparingInt(search -> search.k));
+        for (int lo = 0, hi; lo < batch.size(); lo = hi) {
+            int k = batch.get(lo).k;
+            for (hi = lo + 1; hi < batch.size() && batch.get(hi).k == k; hi++) {
+            }
+            double[] queries = new double[2 * (hi - lo)];
+            for (int i = lo; i < hi; i++) {
+                queries[2 * (i - lo)] = batch.get(i).x;
+                queries[2 * (i - lo) + 1] = batch.get(i).y;
+            }
+            int first = lo;
+            IndexedPointSink<Value> sink = (i, x, y, value) -> batch.get(first + i).accept(x, y, value);
+            try {
+                if (this.serial == null) {
+                    ((KdTreePointST<Value>) this.st).nearestBatch(queries, k, sink, true);
+                } else {
+                    this.serial.lock();
+                    try {
+                        this.st.nearestBatch(queries, k, sink);
+                    } finally {
+                        this.serial.unlock();
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (int i = lo; i < hi; i++) {
+                    batch.get(i).failed = true;
+                }
+            }
+            this.batches.increment();
+            this.batched.add(hi - lo);
+        }
+        for (Search search : batch) {
+            search.done.countDown();
+        }
+    }
+
+    // Returns true if st may be searched from several threads at once: a KdTreePointST itself, not a
+    // subclass, and not instrumented by KdTreeMetrics, whose histograms are shared by its searches.
+    private static boolean searchesConcurrently(PointST<?> st) {
+        return st.getClass() == KdTreePointST.class && !KdTreeMetrics.ENABLED;
+    }
+
+    // Returns a daemon thread with the given name that runs r.
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // Closes the given socket, ignoring any error.
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // The socket is unusable either way
+        }
+    }
+
+    // The points (and their values) found by a search, in the order reported.
+    private class Results implements PointSink<Value> {
+        private double[] coords = new double[8];
+        private Object[] values = new Object[4];
+        private int n;
+
+        // Adds the point (x, y) and its value.
+        public void accept(double x, double y, Value value) {
+            if (this.n == this.values.length) {
+                this.coords = Arrays.copyOf(this.coords, 4 * this.n);
+                this.values = Arrays.copyOf(this.values, 2 * this.n);
+            }
+            this.coords[2 * this.n] = x;
+            this.coords[2 * this.n + 1] = y;
+            this.values[this.n++] = value;
+        }
+
+        // Returns the i-th value.
+        @SuppressWarnings("unchecked")
+        Value value(int i) {
+            return (Value) this.values[i];
+        }
+    }
+
+    // A k-nearest-neighbor search waiting for, or run by, the batching thread.
+    private class Search extends Results {
+        private final double x, y;
+        private final int k;
+        private final CountDownLatch done = new CountDownLatch(1);  // counted down once it is run
+        private boolean failed;                                     // did the search throw?
+
+        // Constructs a search for the k points closest to (x, y).
+        Search(double x, double y, int k) {
+            this.x = x;
+            this.y = y;
+            this.k = k;
+        }
+    }
+}
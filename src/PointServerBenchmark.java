@@ -0,0 +1,170 @@
+// Accepts n (int), clients (int), seconds (double), and k (int) as command-line arguments, and
+// maxInFlight (int) as an optional one; builds a KdTreePointST over n random points in the unit
+// square, and has the given number of threads search it for the k nearest neighbors of random
+// points, each as fast as it can, for the given number of seconds: first in process, and then
+// through a PointServer, each thread with a connection of its own, with k-NN batching off (batches
+// of one) and on. Reports the throughput (searches per second) and the median and 99th percentile
+// latency of each, the searches the server turned away as busy, and the server's mean batch size.
+// Before timing, checks that the server's answers to get(), range(), nearest() and nearest(p, k)
+// agree with the tree's.
+//
+// Example: java PointServerBenchmark 1000000 32 5 10
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import dsa.Point2D;
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+public class PointServerBenchmark {
+    // The number of in-process searches run, or served ones checked, before timing starts
+    private static final int WARMUP = 1 << 14;
+
+    // A searcher.
+    private interface Searcher {
+        // Searches for the k nearest neighbors of (x, y), returning false if it was turned away.
+        boolean search(double x, double y, int k);
+    }
+
+    // Entry point.
+    public static void main(String[] args) throws InterruptedException {
+        int n = Integer.parseInt(args[0]);
+        int clients = Integer.parseInt(args[1]);
+        double seconds = Double.parseDouble(args[2]);
+        int k = Integer.parseInt(args[3]);
+        int maxInFlight = args.length > 4 ? Integer.parseInt(args[4]) : 1 << 10;
+
+        // Build the tree over n random points.
+        StdRandom.setSeed(42);
+        double[] coords = new double[2 * n];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = StdRandom.uniform();
+        }
+        KdTreePointST<Integer> st = KdTreePointST.build(coords, i -> i);
+        long[] checksums = new long[clients];
+        for (int i = 0; i < WARMUP; i++) {
+            st.nearest(StdRandom.uniform(), StdRandom.uniform(), k, (x, y, value) -> checksums[0] += value);
+        }
+
+        StdOut.printf("%-10s %12s %10s %10s %10s %8s\n", "mode", "searches/s", "p50 us", "p99 us", "busy", "batch");
+        run("in-process", clients, seconds, k, id -> (x, y, kk) -> {
+            st.nearest(x, y, kk, (px, py, value) -> checksums[id] += value);
+            return true;
+        }, null);
+        for (int maxBatch : new int[] {1, 1 << 8}) {
+            try (PointServer<Integer> server = new PointServer<Integer>(st, ValueCodec.INTEGER, 0, maxBatch,
+                    maxInFlight)) {
+                check(st, server.port(), coords, k);
+                PointClient<Integer>[] connections = connect(server.port(), clients);
+                run(maxBatch == 1 ? "unbatched" : "batched", clients, seconds, k, id -> (x, y, kk) -> {
+                    try {
+                        connections[id].nearest(x, y, kk, (px, py, value) -> checksums[id] += value);
+                        return true;
+                    } catch (IllegalStateException e) {
+                        return false;
+                    }
+                }, server);
+                for (PointClient<Integer> connection : connections) {
+                    connection.close();
+                }
+                if (maxBatch > 1) {
+                    StdOut.printf("\nconnections served on %s threads\n", server.usesVirtualThreads() ? "virtual"
+                        : "platform");
+                }
+            }
+        }
+    }
+
+    // Runs the given number of threads, each making searches with the searcher made for it, for the
+    // given number of seconds, and reports the results under the given label.
+    private static void run(String label, int clients, double seconds, int k,
+                            IntFunction<Searcher> searchers, PointServer<Integer> server)
+        throws InterruptedException {
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        long[] busy = new long[clients];
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] threads = new Thread[clients];
+        for (int t = 0; t < clients; t++) {
+            int id = t;
+            Searcher searcher = searchers.apply(id);
+            threads[t] = new Thread(() -> {
+                Random random = new Random(id);
+                long[] own = new long[1 << 12];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    if (!searcher.search(random.nextDouble(), random.nextDouble(), k)) {
+                        busy[id]++;
+                        continue;
+                    }
+                    if (count == own.length) {
+                        own = Arrays.copyOf(own, 2 * count);
+                    }
+                    own[count++] = System.nanoTime() - start;
+                }
+                latencies[id] = own;
+                counts[id] = count;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Merges the latencies and reports the percentiles
+        int total = 0;
+        long rejected = 0;
+        for (int t = 0; t < clients; t++) {
+            total += counts[t];
+            rejected += busy[t];
+        }
+        long[] all = new long[total];
+        for (int t = 0, at = 0; t < clients; t++) {
+            System.arraycopy(latencies[t], 0, all, at, counts[t]);
+            at += counts[t];
+        }
+        Arrays.sort(all);
+        StdOut.printf("%-10s %12.0f %10.1f %10.1f %10d %8s\n", label, total / seconds, percentile(all, 0.5) / 1e3,
+            percentile(all, 0.99) / 1e3, rejected, server == null ? "-" : String.format("%.1f", server.meanBatchSize()));
+    }
+
+    // Returns the given quantile of the sorted values, or 0 if there are none.
+    private static long percentile(long[] sorted, double q) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+    }
+
+    // Returns the given number of connections to the server listening on the given port.
+    @SuppressWarnings("unchecked")
+    private static PointClient<Integer>[] connect(int port, int clients) {
+        PointClient<Integer>[] connections = (PointClient<Integer>[]) new PointClient<?>[clients];
+        for (int t = 0; t < clients; t++) {
+            connections[t] = new PointClient<Integer>(port, ValueCodec.INTEGER);
+        }
+        return connections;
+    }
+
+    // Checks the answers of the server listening on the given port against st's, for queries around
+    // the given points, and exits if any disagrees.
+    private static void check(KdTreePointST<Integer> st, int port, double[] coords, int k) {
+        try (PointClient<Integer> client = new PointClient<Integer>(port, ValueCodec.INTEGER)) {
+            for (int i = 0; i < Math.min(WARMUP, coords.length / 2); i++) {
+                double x = coords[2 * i], y = coords[2 * i + 1];
+                double qx = StdRandom.uniform(), qy = StdRandom.uniform();
+                StringBuilder expected = new StringBuilder(), served = new StringBuilder();
+                expected.append(st.get(x, y)).append(st.nearest(qx, qy));
+                served.append(client.get(x, y)).append(client.nearest(qx, qy));
+                st.nearest(qx, qy, k, (px, py, value) -> expected.append(value).append(','));
+                client.nearest(qx, qy, k, (px, py, value) -> served.append(value).append(','));
+                st.range(qx, qy, qx + 0.01, qy + 0.01, (px, py, value) -> expected.append(value).append(';'));
+                client.range(qx, qy, qx + 0.01, qy + 0.01, (px, py, value) -> served.append(value).append(';'));
+                if (!expected.toString().equals(served.toString())) {
+                    StdOut.println("served answers disagree for query " + new Point2D(qx, qy));
+                    System.exit(1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+// Receives the points, along with their values, reported by the primitive searches of a PointST,
+// so that callers can consume results without a Point2D or a queue being allocated for each one.
+public interface PointSink<Value> {
+    // Accepts the point (x, y) and its value.
+    public void accept(double x, double y, Value value);
+}
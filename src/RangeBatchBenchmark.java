@@ -0,0 +1,89 @@
+// Accepts n (int), t (int), and trials (int) as command-line arguments, and layout (String) as an
+// optional one; builds a KdTreePointST over n random points in the unit square; and times
+// searching t * t rectangles using t * t independent range() calls, a sequential rangeBatch(), and
+// a parallel rangeBatch(). Reports the best time of each over the given number of trials, along
+// with the number of points found, which must agree.
+//
+// Layouts: tiles (the default; a t-by-t grid of adjacent rectangles covering the square, as a tile
+//          server asks for), overlapping (squares of side 4 / t at random places, so that each
+//          point is in about 16 of them, as the neighborhoods of a density map are; t must be
+//          greater than 4, so that the squares fit in the unit square).
+//
+// Example: java RangeBatchBenchmark 1000000 64 5 overlapping
+
+import java.util.concurrent.atomic.LongAdder;
+
+import dsa.RectHV;
+import stdlib.StdOut;
+import stdlib.StdRandom;
+
+public class RangeBatchBenchmark {
+    // Entry point.
+    public static void main(String[] args) {
+        int n = Integer.parseInt(args[0]);
+        int t = Integer.parseInt(args[1]);
+        int trials = Integer.parseInt(args[2]);
+        String layout = args.length > 3 ? args[3] : "tiles";
+        if (!layout.equals("tiles") && !layout.equals("overlapping")) {
+            throw new IllegalArgumentException("unknown layout: " + layout);
+        }
+        if (layout.equals("overlapping") && t <= 4) {
+            throw new IllegalArgumentException("the overlapping layout needs t > 4");
+        }
+
+        // Build the tree over n random points.
+        StdRandom.setSeed(42);
+        double[] coords = new double[2 * n];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = StdRandom.uniform();
+        }
+        KdTreePointST<Integer> kdtree = KdTreePointST.build(coords, i -> i);
+
+        // Lay the rectangles out.
+        RectHV[] tiles = new RectHV[t * t];
+        for (int i = 0; i < t; i++) {
+            for (int j = 0; j < t; j++) {
+                if (layout.equals("tiles")) {
+                    tiles[i * t + j] = new RectHV((double) i / t, (double) j / t, (double) (i + 1) / t,
+                        (double) (j + 1) / t);
+                } else {
+                    double side = 4.0 / t;
+                    double x = StdRandom.uniform(0.0, 1.0 - side), y = StdRandom.uniform(0.0, 1.0 - side);
+                    tiles[i * t + j] = new RectHV(x, y, x + side, y + side);
+                }
+            }
+        }
+
+        long bestCalls = Long.MAX_VALUE, bestBatch = Long.MAX_VALUE, bestParallel = Long.MAX_VALUE;
+        long foundCalls = 0, foundBatch = 0, foundParallel = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            // Independent range() calls.
+            long[] count = new long[1];
+            long start = System.nanoTime();
+            for (RectHV r : tiles) {
+                kdtree.range(r.xMin(), r.yMin(), r.xMax(), r.yMax(), (x, y, value) -> count[0]++);
+            }
+            bestCalls = Math.min(bestCalls, System.nanoTime() - start);
+            foundCalls = count[0];
+
+            // One sequential batch.
+            count[0] = 0;
+            start = System.nanoTime();
+            kdtree.rangeBatch(tiles, (index, x, y, value) -> count[0]++);
+            bestBatch = Math.min(bestBatch, System.nanoTime() - start);
+            foundBatch = count[0];
+
+            // One parallel batch.
+            LongAdder found = new LongAdder();
+            start = System.nanoTime();
+            kdtree.rangeBatch(tiles, (index, x, y, value) -> found.increment(), true);
+            bestParallel = Math.min(bestParallel, System.nanoTime() - start);
+            foundParallel = found.sum();
+        }
+
+        StdOut.printf("%d points, %d rectangles\n", n, tiles.length);
+        StdOut.printf("range() calls:       %8.3f ms, %d found\n", bestCalls / 1e6, foundCalls);
+        StdOut.printf("rangeBatch():        %8.3f ms, %d found\n", bestBatch / 1e6, foundBatch);
+        StdOut.printf("parallel batch:      %8.3f ms, %d found\n", bestParallel / 1e6, foundParallel);
+    }
+}
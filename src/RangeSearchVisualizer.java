@@ -1,33 +1,46 @@
-// Accepts filename (String) as command-line argument; draws points from the file using standard
-// draw; and highlights all the points in the rectangle the user selects by dragging the mouse.
-// The search results obtained using BrutePointST are highlighted in red while those obtained
-// using the KdTreeST are highlighted in blue.
+// Accepts filename (String) and optionally mode ("full" or "cached") as command-line arguments;
+// draws points from the file using standard draw; and highlights all the points in the rectangle
+// the user selects by dragging the mouse. The search results obtained using BrutePointST are
+// highlighted in red while those obtained using the KdTreeST are highlighted in blue, and the
+// latency of each search, smoothed over recent frames, is shown in the top left corner. In "full"
+// mode (the default) every point is drawn on every frame; in "cached" mode the points are drawn
+// once into an offscreen image, which is then drawn under the highlights on every frame.
+
+import java.awt.Color;
 
 import dsa.Point2D;
 import dsa.RectHV;
-import stdlib.In;
 import stdlib.StdDraw;
 
 public class RangeSearchVisualizer {
+    // The size of the canvas, StdDraw's default, in pixels.
+    private static final int CANVAS_SIZE = 512;
+
+    // The weight of the latest frame in the smoothed latencies.
+    private static final double SMOOTHING = 0.1;
+
     // Entry point.
     public static void main(String[] args) {
         String filename = args[0];
-        In in = new In(filename);
+        String mode = args.length > 1 ? args[1] : "full";
+        if (!mode.equals("full") && !mode.equals("cached")) {
+            throw new IllegalArgumentException("Illegal command-line argument");
+        }
+        double[] coords = PointFileLoader.load(filename);
 
         // Initialize the data structures with n points from the file.
         BrutePointST<Integer> brute = new BrutePointST<Integer>();
-        KdTreePointST<Integer> kdtree = new KdTreePointST<Integer>();
-        for (int i = 0; !in.isEmpty(); i++) {
-            double x = in.readDouble();
-            double y = in.readDouble();
-            Point2D p = new Point2D(x, y);
-            kdtree.put(p, i);
-            brute.put(p, i);
+        KdTreePointST<Integer> kdtree = KdTreePointST.build(coords, i -> i);
+        for (int i = 0; i < coords.length / 2; i++) {
+            brute.put(new Point2D(coords[2 * i], coords[2 * i + 1]), i);
         }
+        PointLayer layer = new PointLayer(coords, Color.BLACK, CANVAS_SIZE, CANVAS_SIZE);
 
         double x0 = 0.0, y0 = 0.0;  // initial endpoint of rectangle
         double x1 = 0.0, y1 = 0.0;  // current location of mouse
         boolean isDragging = false; // is the user dragging a rectangle
+        double bruteMillis = 0.0;   // smoothed latency of BrutePointST's searches
+        double kdtreeMillis = 0.0;  // smoothed latency of KdTreeST's searches
 
         // Enable double buffering to avoid flicker.
         StdDraw.enableDoubleBuffering();
@@ -57,10 +70,14 @@ public class RangeSearchVisualizer {
 
             // Draw all the points.
             StdDraw.clear();
-            StdDraw.setPenColor(StdDraw.BLACK);
-            StdDraw.setPenRadius(0.01);
-            for (Point2D p : brute.points()) {
-                p.draw();
+            if (mode.equals("cached")) {
+                layer.draw(0.0, 0.0, 1.0, 1.0, 0.01);
+            } else {
+                StdDraw.setPenColor(StdDraw.BLACK);
+                StdDraw.setPenRadius(0.01);
+                for (Point2D p : brute.points()) {
+                    p.draw();
+                }
             }
 
             // Draw the rectangle.
@@ -71,17 +88,28 @@ public class RangeSearchVisualizer {
             // Highlight the range search results from BrutePointST in red.
             StdDraw.setPenRadius(0.03);
             StdDraw.setPenColor(StdDraw.RED);
-            for (Point2D p : brute.range(rect)) {
+            long start = System.nanoTime();
+            Iterable<Point2D> found = brute.range(rect);
+            bruteMillis += SMOOTHING * ((System.nanoTime() - start) / 1e6 - bruteMillis);
+            for (Point2D p : found) {
                 p.draw();
             }
 
             // Highlight the range search results from KdTreeST in blue.
             StdDraw.setPenRadius(0.02);
             StdDraw.setPenColor(StdDraw.BLUE);
-            for (Point2D p : kdtree.range(rect)) {
+            start = System.nanoTime();
+            found = kdtree.range(rect);
+            kdtreeMillis += SMOOTHING * ((System.nanoTime() - start) / 1e6 - kdtreeMillis);
+            for (Point2D p : found) {
                 p.draw();
             }
 
+            // Show the search latencies.
+            StdDraw.setPenColor(StdDraw.BLACK);
+            StdDraw.textLeft(0.01, 0.98, String.format("brute %.3f ms, kdtree %.3f ms per search", bruteMillis,
+                kdtreeMillis));
+
             StdDraw.show();
             StdDraw.pause(40);
         }
@@ -0,0 +1,36 @@
+import java.nio.charset.StandardCharsets;
+
+// Converts the values of a DurablePointST to and from bytes, for its log and snapshots.
+public interface ValueCodec<Value> {
+    // A codec for Integer values, as 4 little-endian bytes.
+    public static final ValueCodec<Integer> INTEGER = new ValueCodec<Integer>() {
+        public byte[] encode(Integer value) {
+            int v = value;
+            return new byte[] {(byte) v, (byte) (v >>> 8), (byte) (v >>> 16), (byte) (v >>> 24)};
+        }
+
+        public Integer decode(byte[] bytes) {
+            if (bytes.length != 4) {
+                throw new IllegalArgumentException("an Integer takes 4 bytes, not " + bytes.length);
+            }
+            return bytes[0] & 0xFF | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | bytes[3] << 24;
+        }
+    };
+
+    // A codec for String values, as UTF-8.
+    public static final ValueCodec<String> STRING = new ValueCodec<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    // Returns the bytes representing the given value.
+    public byte[] encode(Value value);
+
+    // Returns the value the given bytes represent.
+    public Value decode(byte[] bytes);
+}